@@ -0,0 +1,269 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+
+/**
+ * For each operation, the backend to use by number of elements, as measured by a short
+ * calibration which times every candidate backend on a range of sizes.
+ *
+ * Calibrations are saved as properties with one entry per operation, listing each backend with
+ * the largest number of elements it is used for, such as matmul=jblas:4096,djl, so they can be
+ * reused rather than measured on every startup.
+ */
+public class BackendCalibration {
+
+    private final Map<String, List<Range>> ranges;
+
+    /**
+     * @param ranges For each operation, ranges in strictly ascending order of maxElements, the
+     *        last of which is unbounded.
+     */
+    public BackendCalibration(Map<String, List<Range>> ranges) {
+        this.ranges = new LinkedHashMap<>();
+        ranges.forEach((operation, operationRanges) -> {
+            if (operationRanges.isEmpty() || operationRanges.get(operationRanges.size() - 1).maxElements
+                    != Long.MAX_VALUE) {
+                throw new IllegalArgumentException("The ranges of " + operation + " do not cover every size");
+            }
+            for (int i = 1; i < operationRanges.size(); i++) {
+                if (operationRanges.get(i).maxElements <= operationRanges.get(i - 1).maxElements) {
+                    throw new IllegalArgumentException("The ranges of " + operation
+                            + " are not in strictly ascending order of size: " + format(operationRanges));
+                }
+            }
+            this.ranges.put(operation, List.copyOf(operationRanges));
+        });
+    }
+
+    public static Calibrator calibrator() {
+        return new Calibrator();
+    }
+
+    public Set<String> getOperations() {
+        return Collections.unmodifiableSet(ranges.keySet());
+    }
+
+    public List<Range> getRanges(String operation) {
+        var operationRanges = ranges.get(operation);
+        if (operationRanges == null) {
+            throw new IllegalArgumentException("Operation " + operation + " has not been calibrated");
+        }
+        return operationRanges;
+    }
+
+    /**
+     * @return The backend calibrated as fastest for the operation on this number of elements.
+     */
+    public String backendFor(String operation, long elements) {
+        for (var range : getRanges(operation)) {
+            if (elements <= range.maxElements) {
+                return range.backend;
+            }
+        }
+        throw new IllegalStateException("The ranges of " + operation + " do not cover " + elements + " elements");
+    }
+
+    public void store(Path path) throws IOException {
+        var properties = new Properties();
+        ranges.forEach((operation, operationRanges) -> properties.setProperty(operation, format(operationRanges)));
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            properties.store(writer, "Backend calibration");
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException If the file does not hold a valid calibration, including
+     *         ranges which are not in strictly ascending order of size.
+     */
+    public static BackendCalibration load(Path path) throws IOException {
+        var properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+        var ranges = new LinkedHashMap<String, List<Range>>();
+        for (var operation : new TreeSet<>(properties.stringPropertyNames())) {
+            ranges.put(operation, parse(operation, properties.getProperty(operation)));
+        }
+        return new BackendCalibration(ranges);
+    }
+
+    private static String format(List<Range> operationRanges) {
+        var formatted = new StringBuilder();
+        for (var range : operationRanges) {
+            if (formatted.length() > 0) {
+                formatted.append(',');
+            }
+            formatted.append(range.backend);
+            if (range.maxElements != Long.MAX_VALUE) {
+                formatted.append(':').append(range.maxElements);
+            }
+        }
+        return formatted.toString();
+    }
+
+    private static List<Range> parse(String operation, String formatted) {
+        var operationRanges = new ArrayList<Range>();
+        for (var entry : formatted.split(",")) {
+            var parts = entry.trim().split(":");
+            try {
+                operationRanges.add(new Range(parts[0], parts.length == 1 ? Long.MAX_VALUE : Long.parseLong(parts[1])));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid calibration of " + operation + ": " + formatted, e);
+            }
+        }
+        return operationRanges;
+    }
+
+    private static void checkBackendName(String backend) {
+        if (backend.isEmpty() || backend.contains(",") || backend.contains(":")) {
+            throw new IllegalArgumentException("Invalid backend name '" + backend + "'");
+        }
+    }
+
+    @Override
+    public String toString() {
+        var formatted = new StringJoiner(", ", "BackendCalibration [", "]");
+        ranges.forEach((operation, operationRanges) -> formatted.add(operation + "=" + format(operationRanges)));
+        return formatted.toString();
+    }
+
+    /**
+     * The backend used for an operation on up to maxElements elements, and more than the
+     * maxElements of the preceding range.
+     */
+    public static final class Range {
+
+        private final String backend;
+        private final long maxElements;
+
+        public Range(String backend, long maxElements) {
+            checkBackendName(backend);
+            this.backend = backend;
+            this.maxElements = maxElements;
+        }
+
+        public String getBackend() {
+            return backend;
+        }
+
+        public long getMaxElements() {
+            return maxElements;
+        }
+    }
+
+    /**
+     * Times each candidate backend for each operation on each size, taking the median of the
+     * measured runs after warm up, and assigns every size to the fastest backend. The boundary
+     * between two measured sizes with different winners is placed at their geometric mean.
+     */
+    public static final class Calibrator {
+
+        private final Map<String, Map<String, LongFunction<Runnable>>> candidates = new LinkedHashMap<>();
+        private long[] sizes = {4, 64, 1024, 16384, 262144};
+        private int warmupRuns = 5;
+        private int runs = 11;
+
+        private Calibrator() {
+        }
+
+        /**
+         * @param sizes The numbers of elements to time each operation on.
+         */
+        public Calibrator sizes(long... sizes) {
+            if (sizes.length == 0) {
+                throw new IllegalArgumentException("At least one size is required");
+            }
+            this.sizes = sizes.clone();
+            Arrays.sort(this.sizes);
+            return this;
+        }
+
+        public Calibrator runs(int warmupRuns, int runs) {
+            if (warmupRuns < 0 || runs < 1) {
+                throw new IllegalArgumentException("Expected at least one measured run");
+            }
+            this.warmupRuns = warmupRuns;
+            this.runs = runs;
+            return this;
+        }
+
+        /**
+         * @param workload Creates, outside of the timing, the work of running the operation on
+         *        the backend for a number of elements.
+         */
+        public Calibrator candidate(String operation, String backend, LongFunction<Runnable> workload) {
+            checkBackendName(backend);
+            candidates.computeIfAbsent(operation, o -> new LinkedHashMap<>()).put(backend, workload);
+            return this;
+        }
+
+        public BackendCalibration calibrate() {
+            var ranges = new LinkedHashMap<String, List<Range>>();
+            candidates.forEach((operation, backends) -> {
+                var winners = new String[sizes.length];
+                for (int i = 0; i < sizes.length; i++) {
+                    long fastest = Long.MAX_VALUE;
+                    for (var backend : backends.entrySet()) {
+                        long nanos = medianNanos(backend.getValue().apply(sizes[i]));
+                        if (nanos < fastest) {
+                            fastest = nanos;
+                            winners[i] = backend.getKey();
+                        }
+                    }
+                }
+                var operationRanges = new ArrayList<Range>();
+                for (int i = 0; i < sizes.length - 1; i++) {
+                    if (!winners[i].equals(winners[i + 1])) {
+                        operationRanges.add(new Range(winners[i], (long) Math.sqrt((double) sizes[i] * sizes[i + 1])));
+                    }
+                }
+                operationRanges.add(new Range(winners[sizes.length - 1], Long.MAX_VALUE));
+                ranges.put(operation, operationRanges);
+            });
+            return new BackendCalibration(ranges);
+        }
+
+        private long medianNanos(Runnable work) {
+            for (int i = 0; i < warmupRuns; i++) {
+                work.run();
+            }
+            var nanos = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                work.run();
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            return nanos[runs / 2];
+        }
+    }
+}
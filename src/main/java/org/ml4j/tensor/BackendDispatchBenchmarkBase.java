@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark of a mixed workload, a chain of elementwise steps on 2x2 tensors whose
+ * result scales the left operand of a large matmul, run entirely on each backend and with each
+ * operation dispatched to the backend a BackendCalibration measured as fastest for its size.
+ * When the two run on different backends, the result is converted inside the benchmark.
+ *
+ * The mode is either dispatched, or the name of a single backend. The backend names are only
+ * known to subclasses, so the mode defaults to dispatched alone, and the comparison with every
+ * single backend requires naming them, as in -p mode=dispatched,a,b for backends a and b of
+ * createTestBases(). The calibration is loaded from the file named by the ml4j.calibration system
+ * property when it exists, and otherwise measured at setup and saved there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class BackendDispatchBenchmarkBase {
+
+    public static final String DISPATCHED = "dispatched";
+    public static final String ELEMENTWISE = "elementwise";
+    public static final String MATMUL = "matmul";
+
+    @Param({DISPATCHED})
+    public String mode;
+
+    @Param({"64"})
+    public int smallSteps;
+
+    @Param({"512"})
+    public int n;
+
+    protected Map<String, Workload<?, ?>> workloads;
+    protected BackendCalibration calibration;
+
+    /**
+     * @return The test bases of the backends to dispatch between, by backend name.
+     */
+    protected abstract Map<String, TestBase<?, ?>> createTestBases();
+
+    @Setup
+    public void setUp() {
+        workloads = new LinkedHashMap<>();
+        createTestBases().forEach((backend, testBase) -> {
+            testBase.setUp();
+            workloads.put(backend, new Workload<>(testBase, n));
+        });
+        if (!DISPATCHED.equals(mode) && !workloads.containsKey(mode)) {
+            throw new IllegalArgumentException("Mode " + mode + " is neither " + DISPATCHED
+                    + " nor one of the backends " + workloads.keySet());
+        }
+        calibration = loadOrCalibrate();
+    }
+
+    protected BackendCalibration loadOrCalibrate() {
+        var file = System.getProperty("ml4j.calibration");
+        try {
+            if (file != null && Files.exists(Paths.get(file))) {
+                return BackendCalibration.load(Paths.get(file));
+            }
+            var calibrator = BackendCalibration.calibrator().sizes(4, 256, 4096, 65536, 262144).runs(5, 11);
+            workloads.forEach((backend, workload) -> {
+                calibrator.candidate(ELEMENTWISE, backend, workload::elementwise);
+                calibrator.candidate(MATMUL, backend, workload::matmul);
+            });
+            var measured = calibrator.calibrate();
+            if (file != null) {
+                measured.store(Paths.get(file));
+            }
+            System.out.println(measured);
+            return measured;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public Object mixed() {
+        var elementwise = backend(ELEMENTWISE, 4);
+        var scale = elementwise.smallSteps(smallSteps);
+        return backend(MATMUL, (long) n * n).largeMatmul(elementwise, scale);
+    }
+
+    private Workload<?, ?> backend(String operation, long elements) {
+        return workloads.get(DISPATCHED.equals(mode) ? calibration.backendFor(operation, elements) : mode);
+    }
+
+    /**
+     * The inputs of the workload created on one backend.
+     */
+    protected static class Workload<T extends Tensor<T, D>, D> {
+
+        private final TestBase<T, D> testBase;
+        private final T smallLeft;
+        private final T smallRight;
+        private final T largeLeft;
+        private final T largeRight;
+
+        Workload(TestBase<T, D> testBase, int n) {
+            this.testBase = testBase;
+            this.smallLeft = testBase.createGradValue(0.5f, false, new Size(2, 2));
+            this.smallRight = testBase.createGradValue(0.5f, false, new Size(2, 2));
+            this.largeLeft = testBase.createGradValue(0.5f, false, new Size(n, n));
+            this.largeRight = testBase.createGradValue(0.25f, false, new Size(n, n));
+        }
+
+        /**
+         * @return The sum of the result of the chained steps, which converges towards 4.
+         */
+        T smallSteps(int steps) {
+            var result = smallLeft;
+            for (int step = 0; step < steps; step++) {
+                result = result.mul(smallRight).add(smallLeft).relu();
+            }
+            return result.sum();
+        }
+
+        /**
+         * @param from The workload whose backend computed the scale.
+         * @param scale A scalar, converted to this backend if it was computed on another.
+         */
+        T largeMatmul(Workload<?, ?> from, Tensor<?, ?> scale) {
+            return largeLeft.mul(convert(from, scale)).matmul(largeRight);
+        }
+
+        @SuppressWarnings("unchecked")
+        private T convert(Workload<?, ?> from, Tensor<?, ?> scalar) {
+            if (from == this) {
+                return (T) scalar;
+            }
+            var value = new float[1];
+            from.testBase.copyDataInto(scalar, value, 0);
+            return testBase.createGradValue(value[0], false);
+        }
+
+        Runnable elementwise(long elements) {
+            var size = new Size((int) elements);
+            var left = testBase.createGradValue(-2f, false, size);
+            var right = testBase.createGradValue(3f, false, size);
+            return () -> left.mul(right).add(left).relu();
+        }
+
+        Runnable matmul(long elements) {
+            int side = (int) Math.max(1, Math.round(Math.sqrt(elements)));
+            var left = testBase.createGradValue(0.5f, false, new Size(side, side));
+            var right = testBase.createGradValue(0.25f, false, new Size(side, side));
+            return () -> left.matmul(right);
+        }
+    }
+}
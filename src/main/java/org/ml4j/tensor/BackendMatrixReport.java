@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Runs the scenarios of concrete TensorTestBase and AutogradTestBase subclasses and prints a single
+ * table of the outcome, wall time and allocation of every scenario on every backend, followed by
+ * the failure messages. The Tensor and Autograd test classes of a backend, such as HeapTensorTest
+ * and HeapAutogradTest, share its column, and each row is a scenario of one of the two bases.
+ *
+ * Usage: java org.ml4j.tensor.BackendMatrixReport &lt;fully qualified test class name&gt;... where
+ * test classes not on the classpath are reported as unavailable. Wall time and allocation include
+ * setUp.
+ */
+public class BackendMatrixReport {
+
+    /**
+     * The outcome of one scenario on one backend.
+     */
+    public enum Status {
+        PASS, FAIL, SKIP
+    }
+
+    private final List<String> backends = new ArrayList<>();
+    private final Map<String, Map<String, Status>> statuses = new LinkedHashMap<>();
+    private final Map<String, Map<String, ResourceUsage>> usages = new LinkedHashMap<>();
+    private final List<String> failures = new ArrayList<>();
+    private final List<String> unavailableBackends = new ArrayList<>();
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: BackendMatrixReport <test class>...");
+            return;
+        }
+        var report = new BackendMatrixReport();
+        for (var className : args) {
+            report.run(className);
+        }
+        System.out.println(report.format());
+    }
+
+    /**
+     * Runs the test class, named by its fully qualified name, in the column of the backend it tests,
+     * or records it as unavailable if it is not on the classpath.
+     */
+    public void run(String className) {
+        Class<?> testClass;
+        try {
+            testClass = Class.forName(className);
+        } catch (ClassNotFoundException | LinkageError e) {
+            unavailableBackends.add(className + " (" + e + ")");
+            return;
+        }
+        run(backendName(testClass), testClass);
+    }
+
+    /**
+     * Runs the test class in the column of the backend, which may already hold the scenarios of
+     * another test class.
+     */
+    public void run(String backend, Class<?> testClass) {
+        if (!backends.contains(backend)) {
+            backends.add(backend);
+        }
+        var core = new JUnitCore();
+        core.addListener(new MatrixListener(backend, suiteName(testClass)));
+        core.run(Request.aClass(testClass));
+    }
+
+    /**
+     * @return The simple name of the test class without its TensorTest, AutogradTest or Test
+     *         suffix, so HeapTensorTest and HeapAutogradTest both test the Heap backend.
+     */
+    static String backendName(Class<?> testClass) {
+        var name = testClass.getSimpleName();
+        for (var suffix : List.of("TensorTest", "AutogradTest", "Test")) {
+            if (name.endsWith(suffix) && name.length() > suffix.length()) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return The conformance base the test class extends, which qualifies its scenarios, since
+     *         both bases may declare a scenario of the same name.
+     */
+    private static String suiteName(Class<?> testClass) {
+        if (TensorTestBase.class.isAssignableFrom(testClass)) {
+            return TensorTestBase.class.getSimpleName();
+        }
+        if (AutogradTestBase.class.isAssignableFrom(testClass)) {
+            return AutogradTestBase.class.getSimpleName();
+        }
+        return testClass.getSimpleName();
+    }
+
+    /**
+     * @param scenario The name of a scenario qualified by its conformance base, such as
+     *                 TensorTestBase.test_add.
+     */
+    public Status getStatus(String scenario, String backend) {
+        return statuses.getOrDefault(scenario, Map.of()).get(backend);
+    }
+
+    public String format() {
+        int scenarioWidth = "scenario".length();
+        for (var scenario : statuses.keySet()) {
+            scenarioWidth = Math.max(scenarioWidth, scenario.length());
+        }
+        int columnWidth = 26;
+        for (var backend : backends) {
+            columnWidth = Math.max(columnWidth, backend.length());
+        }
+        var scenarioFormat = "%-" + scenarioWidth + "s";
+        var columnFormat = " | %-" + columnWidth + "s";
+
+        var report = new StringBuilder();
+        report.append(String.format(scenarioFormat, "scenario"));
+        for (var backend : backends) {
+            report.append(String.format(columnFormat, backend));
+        }
+        report.append('\n');
+        for (var scenario : statuses.keySet()) {
+            report.append(String.format(scenarioFormat, scenario));
+            for (var backend : backends) {
+                report.append(String.format(columnFormat, cell(scenario, backend)));
+            }
+            report.append('\n');
+        }
+        report.append(String.format(scenarioFormat, "passed"));
+        for (var backend : backends) {
+            report.append(String.format(columnFormat, passedCount(backend) + "/" + runCount(backend)));
+        }
+        report.append('\n');
+        for (var failure : failures) {
+            report.append('\n').append(failure);
+        }
+        for (var backend : unavailableBackends) {
+            report.append("\nUnavailable: ").append(backend);
+        }
+        return report.toString();
+    }
+
+    private String cell(String scenario, String backend) {
+        var status = getStatus(scenario, backend);
+        if (status == null) {
+            return "-";
+        }
+        var usage = usages.getOrDefault(scenario, Map.of()).get(backend);
+        if (status == Status.SKIP || usage == null) {
+            return status.name();
+        }
+        var allocation = usage.getAllocatedBytes() < 0 ? "n/a"
+                : String.format("%.1fKB", usage.getAllocatedBytes() / 1024.0);
+        return String.format("%s %.2fms %s", status, usage.getWallTimeNanos() / 1e6, allocation);
+    }
+
+    private long passedCount(String backend) {
+        return statuses.values().stream().filter(byBackend -> byBackend.get(backend) == Status.PASS).count();
+    }
+
+    private long runCount(String backend) {
+        return statuses.values().stream().filter(byBackend -> byBackend.get(backend) != null
+                && byBackend.get(backend) != Status.SKIP).count();
+    }
+
+    private void record(String scenario, String backend, Status status) {
+        var byBackend = statuses.computeIfAbsent(scenario, s -> new LinkedHashMap<>());
+        // A failure or skip reported during the scenario takes precedence over finishing it
+        if (status == Status.PASS && byBackend.containsKey(backend)) {
+            return;
+        }
+        byBackend.put(backend, status);
+    }
+
+    private class MatrixListener extends RunListener {
+
+        private final String backend;
+        private final String suite;
+        private long startNanos;
+        private long allocatedBytesAtStart;
+
+        MatrixListener(String backend, String suite) {
+            this.backend = backend;
+            this.suite = suite;
+        }
+
+        private String scenario(Description description) {
+            return suite + "." + (description.getMethodName() == null ? description.getDisplayName()
+                    : description.getMethodName());
+        }
+
+        @Override
+        public void testStarted(Description description) {
+            allocatedBytesAtStart = ResourceUsage.currentThreadAllocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void testFinished(Description description) {
+            long wallTimeNanos = System.nanoTime() - startNanos;
+            var usage = new ResourceUsage(wallTimeNanos, ResourceUsage.allocatedBytesSince(allocatedBytesAtStart));
+            usages.computeIfAbsent(scenario(description), s -> new LinkedHashMap<>()).put(backend, usage);
+            record(scenario(description), backend, Status.PASS);
+        }
+
+        @Override
+        public void testFailure(Failure failure) {
+            record(scenario(failure.getDescription()), backend, Status.FAIL);
+            failures.add(backend + " " + scenario(failure.getDescription()) + ": " + failure.getMessage());
+        }
+
+        @Override
+        public void testAssumptionFailure(Failure failure) {
+            record(scenario(failure.getDescription()), backend, Status.SKIP);
+        }
+
+        @Override
+        public void testIgnored(Description description) {
+            record(scenario(description), backend, Status.SKIP);
+        }
+    }
+}
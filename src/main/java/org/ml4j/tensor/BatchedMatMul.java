@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multiplies a row-major (batch, m, k) tensor by a (k, n) matrix, and computes the gradients
+ * of both operands, on a fork/join pool of plain JVM threads.
+ *
+ * The batch and row dimensions of the left operand are contiguous, so it is read in place as
+ * batch * m rows without reshaping or copying. Each product is split into tiles of its output,
+ * over the batch rows and output columns, so every task writes a disjoint region and no
+ * synchronisation or temporary buffers are needed. All methods overwrite their output.
+ *
+ * Arrays may be longer than the values they hold, as the pooled arrays of a FloatArena are, and
+ * only their leading elements are read or written.
+ */
+public class BatchedMatMul {
+
+    private static final long SEQUENTIAL_THRESHOLD = 1 << 18;
+    private static final int MINIMUM_TILE_SIZE = 16;
+
+    private final ForkJoinPool pool;
+
+    public BatchedMatMul() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public BatchedMatMul(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * output (batch, m, n) = left (batch, m, k) x right (k, n)
+     */
+    public void matmul(float[] left, float[] right, float[] output, int batch, int m, int k, int n) {
+        int rows = checkedRows(left, batch, m, k);
+        checkLength(right, k * n, "right");
+        checkLength(output, rows * n, "output");
+        invoke(rows, n, k, (rowStart, rowEnd, columnStart, columnEnd) -> {
+            for (int i = rowStart; i < rowEnd; i++) {
+                int outputRow = i * n;
+                for (int j = columnStart; j < columnEnd; j++) {
+                    output[outputRow + j] = 0;
+                }
+                int leftRow = i * k;
+                for (int p = 0; p < k; p++) {
+                    float value = left[leftRow + p];
+                    int rightRow = p * n;
+                    for (int j = columnStart; j < columnEnd; j++) {
+                        output[outputRow + j] += value * right[rightRow + j];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * leftGradient (batch, m, k) = outputGradient (batch, m, n) x right^T (n, k)
+     */
+    public void leftGradient(float[] outputGradient, float[] right, float[] leftGradient, int batch, int m, int k,
+            int n) {
+        int rows = checkedRows(leftGradient, batch, m, k);
+        checkLength(right, k * n, "right");
+        checkLength(outputGradient, rows * n, "outputGradient");
+        invoke(rows, k, n, (rowStart, rowEnd, columnStart, columnEnd) -> {
+            for (int i = rowStart; i < rowEnd; i++) {
+                int outputGradientRow = i * n;
+                for (int p = columnStart; p < columnEnd; p++) {
+                    int rightRow = p * n;
+                    float sum = 0;
+                    for (int j = 0; j < n; j++) {
+                        sum += outputGradient[outputGradientRow + j] * right[rightRow + j];
+                    }
+                    leftGradient[i * k + p] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * rightGradient (k, n) = left^T (k, batch * m) x outputGradient (batch * m, n), summed over the batch.
+     */
+    public void rightGradient(float[] left, float[] outputGradient, float[] rightGradient, int batch, int m, int k,
+            int n) {
+        int rows = checkedRows(left, batch, m, k);
+        checkLength(rightGradient, k * n, "rightGradient");
+        checkLength(outputGradient, rows * n, "outputGradient");
+        invoke(k, n, rows, (rowStart, rowEnd, columnStart, columnEnd) -> {
+            for (int p = rowStart; p < rowEnd; p++) {
+                int rightGradientRow = p * n;
+                for (int j = columnStart; j < columnEnd; j++) {
+                    rightGradient[rightGradientRow + j] = 0;
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                int leftRow = i * k;
+                int outputGradientRow = i * n;
+                for (int p = rowStart; p < rowEnd; p++) {
+                    float value = left[leftRow + p];
+                    int rightGradientRow = p * n;
+                    for (int j = columnStart; j < columnEnd; j++) {
+                        rightGradient[rightGradientRow + j] += value * outputGradient[outputGradientRow + j];
+                    }
+                }
+            }
+        });
+    }
+
+    private void invoke(int rows, int columns, int depth, TileKernel kernel) {
+        var task = new TileTask(kernel, 0, rows, 0, columns, depth);
+        if ((long) rows * columns * depth <= SEQUENTIAL_THRESHOLD) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private static int checkedRows(float[] data, int batch, int m, int k) {
+        checkLength(data, batch * m * k, "left");
+        return batch * m;
+    }
+
+    private static void checkLength(float[] data, int expectedLength, String name) {
+        if (data.length < expectedLength) {
+            throw new IllegalArgumentException("Expected " + name + " to have at least " + expectedLength
+                    + " elements but it has " + data.length);
+        }
+    }
+
+    /**
+     * Computes the output elements in the given ranges of rows and columns.
+     */
+    private interface TileKernel {
+
+        void compute(int rowStart, int rowEnd, int columnStart, int columnEnd);
+    }
+
+    private static class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient TileKernel kernel;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int columnStart;
+        private final int columnEnd;
+        private final int depth;
+
+        TileTask(TileKernel kernel, int rowStart, int rowEnd, int columnStart, int columnEnd, int depth) {
+            this.kernel = kernel;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.columnStart = columnStart;
+            this.columnEnd = columnEnd;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowEnd - rowStart;
+            int columns = columnEnd - columnStart;
+            boolean splitRows = rows >= columns && rows >= 2 * MINIMUM_TILE_SIZE;
+            boolean splitColumns = !splitRows && columns >= 2 * MINIMUM_TILE_SIZE;
+            if ((long) rows * columns * depth <= SEQUENTIAL_THRESHOLD || (!splitRows && !splitColumns)) {
+                kernel.compute(rowStart, rowEnd, columnStart, columnEnd);
+            } else if (splitRows) {
+                int middle = rowStart + rows / 2;
+                invokeAll(new TileTask(kernel, rowStart, middle, columnStart, columnEnd, depth),
+                        new TileTask(kernel, middle, rowEnd, columnStart, columnEnd, depth));
+            } else {
+                int middle = columnStart + columns / 2;
+                invokeAll(new TileTask(kernel, rowStart, rowEnd, columnStart, middle, depth),
+                        new TileTask(kernel, rowStart, rowEnd, middle, columnEnd, depth));
+            }
+        }
+    }
+}
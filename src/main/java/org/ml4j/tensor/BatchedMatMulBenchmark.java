@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how BatchedMatMul scales with the number of threads for the testMatMul pattern,
+ * a (batch, 128, 512) tensor multiplied by a (512, 65) matrix, at production batch sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchedMatMulBenchmark {
+
+    private static final int M = 128;
+    private static final int K = 512;
+    private static final int N = 65;
+
+    @Param({"32", "256"})
+    public int batch;
+
+    /**
+     * The parallelism of the fork/join pool, where 0 means all available processors.
+     */
+    @Param({"1", "2", "4", "8", "0"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private BatchedMatMul batchedMatMul;
+
+    private float[] left;
+    private float[] right;
+    private float[] output;
+    private float[] leftGradient;
+    private float[] rightGradient;
+
+    @Setup
+    public void setUp() {
+        this.pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        this.batchedMatMul = new BatchedMatMul(pool);
+        this.left = new float[batch * M * K];
+        this.right = new float[K * N];
+        this.output = new float[batch * M * N];
+        this.leftGradient = new float[left.length];
+        this.rightGradient = new float[right.length];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = (i % 17) / 17f;
+        }
+        for (int i = 0; i < right.length; i++) {
+            right[i] = (i % 13) / 13f;
+        }
+        for (int i = 0; i < output.length; i++) {
+            output[i] = 1;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public float[] matmul() {
+        batchedMatMul.matmul(left, right, output, batch, M, K, N);
+        return output;
+    }
+
+    @Benchmark
+    public float[] leftGradient() {
+        batchedMatMul.leftGradient(output, right, leftGradient, batch, M, K, N);
+        return leftGradient;
+    }
+
+    @Benchmark
+    public float[] rightGradient() {
+        batchedMatMul.rightGradient(left, output, rightGradient, batch, M, K, N);
+        return rightGradient;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark for the backward pass of broadcast addition, for the same broadcast
+ * patterns as BroadcastReductionBenchmark so the two can be compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class BroadcastGradientBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    @Param({"leading", "trailing", "scalar", "1x1"})
+    public String pattern;
+
+    protected T left;
+    protected T right;
+    protected T upstreamGradient;
+
+    protected abstract TestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        var testBase = createTestBase();
+        testBase.setUp();
+        var sourceSize = new Size(BroadcastReductionBenchmark.SOURCE_DIMENSIONS);
+        this.left = testBase.createGradValue(1f, true, sourceSize);
+        this.right = testBase.createGradValue(2f, true,
+                new Size(BroadcastReductionBenchmark.targetDimensions(pattern)));
+        this.upstreamGradient = testBase.createGradValue(1f, false, sourceSize);
+    }
+
+    @Benchmark
+    public T addBackward() {
+        left.add(right).backward(upstreamGradient);
+        return right.grad();
+    }
+}
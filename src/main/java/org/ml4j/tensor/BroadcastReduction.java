@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Reduces a row-major gradient to the shape of an operand that was broadcast to produce it,
+ * as needed by the backward pass of broadcast operations.
+ *
+ * Adjacent dimensions which are all kept or all reduced are collapsed, and the result is
+ * accumulated with a strided walk over the source rather than a copy of it. Large reductions are
+ * split across the common fork/join pool along a kept dimension, so that each task writes a
+ * disjoint region of the target, or into per-task partial sums when reducing to a scalar. So a
+ * call allocates the collapsed shape and, when split, the tasks of the parallel stream and an
+ * array of partial sums, but nothing that grows with the source.
+ */
+public final class BroadcastReduction {
+
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private BroadcastReduction() {
+    }
+
+    /**
+     * Sums the source over the dimensions along which the target shape was broadcast. The
+     * arrays may be longer than their dimensions, such as when taken from a pool, and only as
+     * many leading elements as the dimensions have are read or written.
+     *
+     * @param source The gradient with respect to the broadcast result.
+     * @param sourceDimensions The dimensions of the broadcast result.
+     * @param target The gradient with respect to the broadcast operand.
+     * @param targetDimensions The dimensions of the broadcast operand, which are aligned with the
+     *        trailing source dimensions and are each either 1 or equal to the source dimension.
+     * @param accumulate Whether to add to the existing target values rather than overwrite them.
+     */
+    public static void reduce(float[] source, int[] sourceDimensions, float[] target, int[] targetDimensions,
+            boolean accumulate) {
+        var shape = Shape.of(sourceDimensions, targetDimensions);
+        int sourceLength = numel(sourceDimensions);
+        int targetLength = numel(targetDimensions);
+        if (source.length < sourceLength || target.length < targetLength) {
+            throw new IllegalArgumentException("Array lengths are shorter than dimensions " + Arrays.toString(
+                    sourceDimensions) + " and " + Arrays.toString(targetDimensions));
+        }
+        if (!accumulate) {
+            Arrays.fill(target, 0, targetLength, 0);
+        }
+        if (shape.rank() == 0) {
+            target[0] += source[0];
+        } else if (shape.splitDimension < 0) {
+            reduceToScalar(source, sourceLength, target);
+        } else {
+            int splitSize = shape.sizes[shape.splitDimension];
+            int chunks = chunks(sourceLength, splitSize);
+            if (chunks == 1) {
+                accumulate(source, target, shape, 0, 0, 0, 0, splitSize);
+            } else {
+                IntStream.range(0, chunks).parallel().forEach(chunk -> accumulate(source, target, shape, 0, 0, 0,
+                        (int) ((long) splitSize * chunk / chunks), (int) ((long) splitSize * (chunk + 1) / chunks)));
+            }
+        }
+    }
+
+    private static void reduceToScalar(float[] source, int sourceLength, float[] target) {
+        int chunks = chunks(sourceLength, sourceLength);
+        if (chunks == 1) {
+            target[0] += sum(source, 0, sourceLength);
+        } else {
+            var partialSums = new float[chunks];
+            IntStream.range(0, chunks).parallel().forEach(chunk -> partialSums[chunk] = sum(source,
+                    (int) ((long) sourceLength * chunk / chunks), (int) ((long) sourceLength * (chunk + 1) / chunks)));
+            target[0] += sum(partialSums, 0, chunks);
+        }
+    }
+
+    private static void accumulate(float[] source, float[] target, Shape shape, int dimension, int sourceOffset,
+            int targetOffset, int from, int to) {
+        int start = dimension == shape.splitDimension ? from : 0;
+        int end = dimension == shape.splitDimension ? to : shape.sizes[dimension];
+        if (dimension == shape.rank() - 1) {
+            if (shape.reduced[dimension]) {
+                target[targetOffset] += sum(source, sourceOffset + start, sourceOffset + end);
+            } else {
+                for (int i = start; i < end; i++) {
+                    target[targetOffset + i] += source[sourceOffset + i];
+                }
+            }
+        } else {
+            int sourceStride = shape.sourceStrides[dimension];
+            int targetStride = shape.targetStrides[dimension];
+            for (int i = start; i < end; i++) {
+                accumulate(source, target, shape, dimension + 1, sourceOffset + i * sourceStride,
+                        targetOffset + i * targetStride, from, to);
+            }
+        }
+    }
+
+    private static float sum(float[] values, int from, int to) {
+        float sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private static int chunks(int work, int splitSize) {
+        if (work < PARALLEL_THRESHOLD) {
+            return 1;
+        }
+        int chunks = Math.min(work / (PARALLEL_THRESHOLD / 2), 4 * Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Math.min(chunks, splitSize));
+    }
+
+    private static int numel(int[] dimensions) {
+        int numel = 1;
+        for (int dimension : dimensions) {
+            numel *= dimension;
+        }
+        return numel;
+    }
+
+    /**
+     * The source dimensions with adjacent kept or reduced dimensions collapsed together.
+     */
+    private static final class Shape {
+
+        private final int[] sizes;
+        private final boolean[] reduced;
+        private final int[] sourceStrides;
+        private final int[] targetStrides;
+        private final int splitDimension;
+
+        private Shape(int[] sizes, boolean[] reduced) {
+            this.sizes = sizes;
+            this.reduced = reduced;
+            this.sourceStrides = new int[sizes.length];
+            this.targetStrides = new int[sizes.length];
+            int sourceStride = 1;
+            int targetStride = 1;
+            int splitDimension = -1;
+            for (int i = sizes.length - 1; i >= 0; i--) {
+                sourceStrides[i] = sourceStride;
+                sourceStride *= sizes[i];
+                if (!reduced[i]) {
+                    targetStrides[i] = targetStride;
+                    targetStride *= sizes[i];
+                    if (splitDimension < 0 || sizes[i] >= sizes[splitDimension]) {
+                        splitDimension = i;
+                    }
+                }
+            }
+            this.splitDimension = splitDimension;
+        }
+
+        private int rank() {
+            return sizes.length;
+        }
+
+        private static Shape of(int[] sourceDimensions, int[] targetDimensions) {
+            int offset = sourceDimensions.length - targetDimensions.length;
+            if (offset < 0) {
+                throw new IllegalArgumentException("Cannot reduce " + Arrays.toString(sourceDimensions) + " to "
+                        + Arrays.toString(targetDimensions));
+            }
+            var sizes = new int[sourceDimensions.length];
+            var reduced = new boolean[sourceDimensions.length];
+            int rank = 0;
+            for (int i = 0; i < sourceDimensions.length; i++) {
+                int targetDimension = i < offset ? 1 : targetDimensions[i - offset];
+                if (targetDimension != 1 && targetDimension != sourceDimensions[i]) {
+                    throw new IllegalArgumentException("Cannot reduce " + Arrays.toString(sourceDimensions) + " to "
+                            + Arrays.toString(targetDimensions));
+                }
+                if (sourceDimensions[i] == 1) {
+                    continue;
+                }
+                boolean isReduced = targetDimension == 1;
+                if (rank > 0 && reduced[rank - 1] == isReduced) {
+                    sizes[rank - 1] *= sourceDimensions[i];
+                } else {
+                    sizes[rank] = sourceDimensions[i];
+                    reduced[rank] = isReduced;
+                    rank++;
+                }
+            }
+            return new Shape(Arrays.copyOf(sizes, rank), Arrays.copyOf(reduced, rank));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares BroadcastReduction with a generic index-decomposing reduction, reducing a
+ * (64, 256, 256) gradient for each broadcast pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastReductionBenchmark {
+
+    static final int[] SOURCE_DIMENSIONS = new int[] {64, 256, 256};
+
+    @Param({"leading", "trailing", "scalar", "1x1"})
+    public String pattern;
+
+    private float[] source;
+    private int[] targetDimensions;
+    private float[] target;
+
+    @Setup
+    public void setUp() {
+        this.source = new float[64 * 256 * 256];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = i % 7;
+        }
+        this.targetDimensions = targetDimensions(pattern);
+        int targetLength = 1;
+        for (int dimension : targetDimensions) {
+            targetLength *= dimension;
+        }
+        this.target = new float[targetLength];
+    }
+
+    static int[] targetDimensions(String pattern) {
+        switch (pattern) {
+            case "leading":
+                return new int[] {256, 256};
+            case "trailing":
+                return new int[] {64, 256, 1};
+            case "scalar":
+                return new int[0];
+            case "1x1":
+                return new int[] {1, 1};
+            default:
+                throw new IllegalArgumentException("Unknown broadcast pattern: " + pattern);
+        }
+    }
+
+    @Benchmark
+    public float[] kernel() {
+        BroadcastReduction.reduce(source, SOURCE_DIMENSIONS, target, targetDimensions, false);
+        return target;
+    }
+
+    @Benchmark
+    public float[] generic() {
+        Arrays.fill(target, 0);
+        int offset = SOURCE_DIMENSIONS.length - targetDimensions.length;
+        for (int i = 0; i < source.length; i++) {
+            int remainder = i;
+            int targetIndex = 0;
+            int targetStride = 1;
+            for (int d = SOURCE_DIMENSIONS.length - 1; d >= 0; d--) {
+                int index = remainder % SOURCE_DIMENSIONS[d];
+                remainder /= SOURCE_DIMENSIONS[d];
+                if (d >= offset && targetDimensions[d - offset] != 1) {
+                    targetIndex += index * targetStride;
+                    targetStride *= targetDimensions[d - offset];
+                }
+            }
+            target[targetIndex] += source[i];
+        }
+        return target;
+    }
+}
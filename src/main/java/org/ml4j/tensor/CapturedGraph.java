@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.List;
+
+/**
+ * A forward and backward graph recorded once for fixed leaf sizes, which can be replayed with
+ * new leaf values without building new nodes.
+ *
+ * @param <T> The type of tensor.
+ */
+public interface CapturedGraph<T> {
+
+    /**
+     * @return The leaves the graph was captured with, whose grad() holds the gradients of the
+     *         most recent replay.
+     */
+    List<T> getLeaves();
+
+    /**
+     * Copies the values into the captured leaves, then reruns the forward and backward passes,
+     * overwriting rather than accumulating the leaf gradients.
+     *
+     * @param leafValues The new values, one for each leaf and of the same size.
+     * @return The output of the forward pass.
+     * @throws IllegalArgumentException If the number or sizes of the values do not match the leaves.
+     */
+    T replay(List<T> leafValues);
+}
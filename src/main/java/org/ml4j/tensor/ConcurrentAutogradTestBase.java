@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.autograd.BackwardConfig;
+
+/**
+ * Builds and back-propagates independent graphs on several threads at once, all against the
+ * single registry of one conformance test, checking every gradient and reporting how graph
+ * throughput scales with the number of threads.
+ */
+public abstract class ConcurrentAutogradTestBase<T extends Tensor<T, D>, D> {
+
+    protected TensorTestBase<T, D> testBase;
+
+    protected abstract TensorTestBase<T, D> createTestBase();
+
+    @Before
+    public void setUp() {
+        this.testBase = createTestBase();
+        this.testBase.setUp();
+    }
+
+    protected int getThreadCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    protected int getIterationsPerThread() {
+        return 200;
+    }
+
+    protected int[] getScalingThreadCounts() {
+        var threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < getThreadCount(); threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(getThreadCount());
+        return threadCounts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void test_concurrent_example() throws Exception {
+        runConcurrently(getThreadCount(), getIterationsPerThread(), this::example);
+    }
+
+    @Test
+    public void test_concurrent_hessian_vector() throws Exception {
+        runConcurrently(getThreadCount(), getIterationsPerThread(), this::hessianVector);
+    }
+
+    @Test
+    public void test_concurrent_mixed_graphs() throws Exception {
+        runConcurrently(getThreadCount(), getIterationsPerThread(), () -> {
+            example();
+            hessianVector();
+        });
+    }
+
+    @Test
+    public void test_throughput_scaling() throws Exception {
+        System.out.println(String.format("%8s %16s %10s", "threads", "graphs/second", "speedup"));
+        double singleThreadThroughput = 0;
+        for (int threads : getScalingThreadCounts()) {
+            runConcurrently(threads, getIterationsPerThread() / 10, this::example);
+            long elapsedNanos = runConcurrently(threads, getIterationsPerThread(), this::example);
+            double throughput = threads * (double) getIterationsPerThread() / (elapsedNanos / 1e9);
+            if (threads == 1) {
+                singleThreadThroughput = throughput;
+            }
+            System.out.println(String.format("%8d %16.1f %10.2f", threads, throughput,
+                    singleThreadThroughput == 0 ? 0 : throughput / singleThreadThroughput));
+        }
+    }
+
+    /**
+     * The graph of TensorTestBase.test_example.
+     */
+    protected void example() {
+        var a = testBase.createGradValue(-4f, true).name_("a");
+        var b = testBase.createGradValue(2.0f, true).name_("b");
+        if (!testBase.isNativeGradientExpected()) {
+            a.getGradNode().setDisableNativeGradient(true);
+            b.getGradNode().setDisableNativeGradient(true);
+        }
+        testBase.exampleGraph(a, b).backward();
+
+        testBase.assertEquals(testBase.createData(138.83f), a.grad().data().get());
+        testBase.assertEquals(testBase.createData(645.58f), b.grad().data().get());
+    }
+
+    /**
+     * The graph of TensorTestBase.test_hessian_vector.
+     */
+    protected void hessianVector() {
+        var x = testBase.createGradValue(0.5f, true).name_("x");
+        var y = testBase.createGradValue(0.6f, true).name_("y");
+        if (!testBase.isNativeGradientExpected()) {
+            x.getGradNode().setDisableNativeGradient(true);
+            y.getGradNode().setDisableNativeGradient(true);
+        }
+        var z = x.mul(x).add(y.mul(x).add(y.mul(y)));
+        var two = testBase.createGradValue(2, true);
+
+        z.backward(new BackwardConfig().with_keep_graph(true));
+
+        testBase.assertEquals(testBase.createData(1.6f), x.grad(false).data().get());
+        testBase.assertEquals(testBase.createData(1.7f), y.grad(false).data().get());
+
+        x.grad().mul(two).add(y.grad()).backward(new BackwardConfig());
+
+        testBase.assertEquals(testBase.createData(6.6f), x.grad().data().get());
+        testBase.assertEquals(testBase.createData(5.7f), y.grad().data().get());
+    }
+
+    /**
+     * Runs the graph the given number of times on each of the given number of threads, all
+     * released together, rethrowing the first failure.
+     *
+     * @return The elapsed wall time in nanoseconds.
+     */
+    protected long runConcurrently(int threads, int iterationsPerThread, Runnable graph) throws Exception {
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var ready = new CountDownLatch(threads);
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                Callable<Void> task = () -> {
+                    ready.countDown();
+                    start.await();
+                    for (int j = 0; j < iterationsPerThread; j++) {
+                        graph.run();
+                    }
+                    return null;
+                };
+                futures.add(executor.submit(task));
+            }
+            ready.await();
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (var future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+            return System.nanoTime() - startNanos;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hands out float buffers for the intermediate values of a pass from pools of power of two size
+ * classes, and recycles all of them when the pass finishes and the arena is reset.
+ *
+ * Buffers check that they have not been released when their array is acquired, once per use
+ * rather than per element, so a caller acquiring a result beyond the pass which produced it
+ * fails with an IllegalStateException rather than silently reading data overwritten by a later
+ * pass. A buffer is used by the thread of the pass which allocated it.
+ */
+public class FloatArena implements AutoCloseable {
+
+    private static final int MINIMUM_SIZE_CLASS = 4;
+    private static final int SIZE_CLASSES = 31;
+
+    private final List<ArrayDeque<float[]>> pools = new ArrayList<>(SIZE_CLASSES);
+    private final List<Buffer> outstanding = new ArrayList<>();
+    private long reservedBytes;
+    private long inUseBytes;
+    private long peakInUseBytes;
+    private boolean closed;
+
+    public FloatArena() {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            pools.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @return A buffer of the given length whose contents are unspecified.
+     */
+    public synchronized Buffer allocate(int length) {
+        if (closed) {
+            throw new IllegalStateException("Arena has been closed");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative buffer length " + length);
+        }
+        int sizeClass = sizeClass(length);
+        var array = pools.get(sizeClass).poll();
+        if (array == null) {
+            array = new float[1 << sizeClass];
+            reservedBytes += (long) array.length * Float.BYTES;
+        }
+        inUseBytes += (long) array.length * Float.BYTES;
+        peakInUseBytes = Math.max(peakInUseBytes, inUseBytes);
+        var buffer = new Buffer(this, array, length, outstanding.size());
+        outstanding.add(buffer);
+        return buffer;
+    }
+
+    public Buffer allocateZeroed(int length) {
+        var buffer = allocate(length);
+        Arrays.fill(buffer.array, 0, length, 0);
+        return buffer;
+    }
+
+    /**
+     * Releases every outstanding buffer back to the pools, at the end of a pass.
+     */
+    public synchronized void reset() {
+        for (var buffer : outstanding) {
+            recycle(buffer);
+        }
+        outstanding.clear();
+    }
+
+    /**
+     * Resets the arena and drops its pools, after which it cannot allocate.
+     */
+    @Override
+    public synchronized void close() {
+        reset();
+        pools.forEach(ArrayDeque::clear);
+        reservedBytes = 0;
+        closed = true;
+    }
+
+    /**
+     * @return The bytes of all the arrays owned by the arena, whether pooled or in use.
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public synchronized long getInUseBytes() {
+        return inUseBytes;
+    }
+
+    public synchronized long getPeakInUseBytes() {
+        return peakInUseBytes;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * Moves the last outstanding buffer into the slot of the released one.
+     */
+    private synchronized void release(Buffer buffer) {
+        buffer.checkNotReleased();
+        var last = outstanding.remove(outstanding.size() - 1);
+        if (last != buffer) {
+            outstanding.set(buffer.slot, last);
+            last.slot = buffer.slot;
+        }
+        recycle(buffer);
+    }
+
+    private void recycle(Buffer buffer) {
+        inUseBytes -= (long) buffer.array.length * Float.BYTES;
+        if (!closed) {
+            pools.get(sizeClass(buffer.array.length)).push(buffer.array);
+        }
+        buffer.released = true;
+    }
+
+    private static int sizeClass(int length) {
+        int sizeClass = length <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+        if (sizeClass >= SIZE_CLASSES) {
+            throw new IllegalArgumentException("Buffer length " + length + " is too large to pool");
+        }
+        return Math.max(MINIMUM_SIZE_CLASS, sizeClass);
+    }
+
+    /**
+     * A buffer of a fixed length, backed by a pooled array which may be longer.
+     */
+    public static final class Buffer {
+
+        private final FloatArena arena;
+        private final float[] array;
+        private final int length;
+        private int slot;
+        private boolean released;
+
+        private Buffer(FloatArena arena, float[] array, int length, int slot) {
+            this.arena = arena;
+            this.array = array;
+            this.length = length;
+            this.slot = slot;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Reads a value without checking that the buffer has not been released, which callers
+         * check once with array() before a run of accesses.
+         */
+        public float get(int index) {
+            checkIndex(index);
+            return array[index];
+        }
+
+        /**
+         * Writes a value without checking that the buffer has not been released, as get().
+         */
+        public void set(int index, float value) {
+            checkIndex(index);
+            array[index] = value;
+        }
+
+        /**
+         * @return The backing array, of at least length() elements, which must not be used
+         *         once the buffer is released.
+         * @throws IllegalStateException If the buffer has been released.
+         */
+        public float[] array() {
+            checkNotReleased();
+            return array;
+        }
+
+        public float[] toFloatArray() {
+            checkNotReleased();
+            return Arrays.copyOf(array, length);
+        }
+
+        public boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * Returns the buffer to its arena before the end of the pass.
+         */
+        public void release() {
+            arena.release(this);
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " is outside a buffer of length " + length);
+            }
+        }
+
+        private void checkNotReleased() {
+            if (released) {
+                throw new IllegalStateException("Buffer used after it was released back to its arena");
+            }
+        }
+    }
+}
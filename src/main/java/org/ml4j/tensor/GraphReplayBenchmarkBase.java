@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark comparing one training step of the test_example graph built from scratch
+ * with a replay of the captured graph. For small tensors building the graph dominates the step.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class GraphReplayBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    @Param({"1", "16x16", "256x256"})
+    public String shape;
+
+    protected TensorTestBase<T, D> testBase;
+    protected Size size;
+    protected CapturedGraph<T> graph;
+    protected List<T> leafValues;
+
+    protected abstract TensorTestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        testBase = createTestBase();
+        testBase.setUp();
+        size = TensorBenchmarkBase.parseSize(shape);
+        graph = testBase.capture(leaves -> testBase.exampleGraph(leaves.get(0), leaves.get(1)).sum(),
+                List.of(testBase.createGradValue(-4f, true, size), testBase.createGradValue(2f, true, size)));
+        leafValues = List.of(testBase.createGradValue(-4f, false, size), testBase.createGradValue(2f, false, size));
+    }
+
+    @Benchmark
+    public T build() {
+        var a = testBase.createGradValue(-4f, true, size);
+        var b = testBase.createGradValue(2f, true, size);
+        var g = testBase.exampleGraph(a, b).sum();
+        g.backward();
+        return a.grad();
+    }
+
+    @Benchmark
+    public T replay() {
+        graph.replay(leafValues);
+        return graph.getLeaves().get(0).grad();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Arrays;
+
+/**
+ * Row-major tensor data stored as 16-bit bfloat16 or fp16 values, halving memory and bandwidth
+ * compared to float storage.
+ *
+ * Reductions and products accumulate in float and round to 16 bits once per output element,
+ * rather than once per accumulation step.
+ */
+public class HalfPrecisionStorage {
+
+    private final Precision precision;
+    private final short[] data;
+
+    public HalfPrecisionStorage(Precision precision, int length) {
+        if (precision == Precision.FLOAT32) {
+            throw new IllegalArgumentException("Half precision storage requires BFLOAT16 or FLOAT16");
+        }
+        this.precision = precision;
+        this.data = new short[length];
+    }
+
+    public static HalfPrecisionStorage of(Precision precision, float[] values) {
+        var storage = new HalfPrecisionStorage(precision, values.length);
+        for (int i = 0; i < values.length; i++) {
+            storage.set(i, values[i]);
+        }
+        return storage;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public int length() {
+        return data.length;
+    }
+
+    public float get(int index) {
+        return precision.decode(data[index]);
+    }
+
+    public void set(int index, float value) {
+        data[index] = precision.encode(value);
+    }
+
+    public float[] toFloatArray() {
+        var values = new float[data.length];
+        for (int i = 0; i < data.length; i++) {
+            values[i] = precision.decode(data[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return The sum of all values, accumulated in float.
+     */
+    public float sum() {
+        float sum = 0;
+        for (short value : data) {
+            sum += precision.decode(value);
+        }
+        return sum;
+    }
+
+    /**
+     * output (m, n) = left (m, k) x right (k, n), accumulating each output element in float.
+     */
+    public static void matmul(HalfPrecisionStorage left, HalfPrecisionStorage right, HalfPrecisionStorage output,
+            int m, int k, int n) {
+        if (left.length() != m * k || right.length() != k * n || output.length() != m * n) {
+            throw new IllegalArgumentException("Storage lengths do not match (" + m + ", " + k + ") x (" + k + ", "
+                    + n + ")");
+        }
+        var accumulators = new float[n];
+        for (int i = 0; i < m; i++) {
+            Arrays.fill(accumulators, 0);
+            for (int p = 0; p < k; p++) {
+                float value = left.get(i * k + p);
+                for (int j = 0; j < n; j++) {
+                    accumulators[j] += value * right.get(p * n + j);
+                }
+            }
+            for (int j = 0; j < n; j++) {
+                output.set(i * n + j, accumulators[j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.autograd.BackwardConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark comparing the backend's hvp with the manual approach of
+ * test_hessian_vector, on the quadratic x * x + y * x + y * y summed over n x n tensors.
+ * Run with -prof gc to compare allocation as well as time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class HessianVectorProductBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    @Param({"1", "64", "512"})
+    public int n;
+
+    protected TensorTestBase<T, D> testBase;
+    protected Size size;
+    protected T vx;
+    protected T vy;
+
+    protected abstract TensorTestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        testBase = createTestBase();
+        testBase.setUp();
+        size = new Size(n, n);
+        vx = testBase.createGradValue(2f, false, size);
+        vy = testBase.createGradValue(1f, false, size);
+    }
+
+    @Benchmark
+    public List<T> hvp() {
+        var inputs = List.of(testBase.createGradValue(0.5f, true, size), testBase.createGradValue(0.6f, true, size));
+        return testBase.hvp(leaves -> testBase.quadratic(leaves).sum(), inputs, List.of(vx, vy));
+    }
+
+    @Benchmark
+    public T manual() {
+        var x = testBase.createGradValue(0.5f, true, size);
+        var y = testBase.createGradValue(0.6f, true, size);
+        testBase.quadratic(List.of(x, y)).sum().backward(new BackwardConfig().with_keep_graph(true));
+        x.grad().mul(vx).sum().add(y.grad().mul(vy).sum()).backward(new BackwardConfig());
+        return x.grad();
+    }
+}
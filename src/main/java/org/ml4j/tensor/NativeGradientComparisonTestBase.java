@@ -0,0 +1,383 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.autograd.BackwardConfig;
+import org.ml4j.autograd.node.GradNode;
+
+/**
+ * Runs test_example and the gradient scenarios of AutogradTestBase, through the graphs their
+ * tests build, with the native gradient path enabled and disabled. Checks
+ * both produce the same gradients, and reports backward wall time, allocated bytes and the
+ * number of nodes in the gradient graph side by side.
+ *
+ * Backends without native gradients compute both the same way, which is still checked and
+ * reported as the baseline.
+ */
+public abstract class NativeGradientComparisonTestBase<T extends Tensor<T, D>, D> {
+
+    protected TensorTestBase<T, D> testBase;
+    protected AutogradTestBase<T, ?, ?> autogradTestBase;
+
+    protected abstract TensorTestBase<T, D> createTestBase();
+
+    /**
+     * @return The autograd tests of the same backend, whose wrapped tensors are those of
+     *         createTestBase().
+     */
+    protected abstract AutogradTestBase<T, ?, ?> createAutogradTestBase();
+
+    @Before
+    public void setUp() {
+        this.testBase = createTestBase();
+        this.testBase.setUp();
+        this.autogradTestBase = createAutogradTestBase();
+        this.autogradTestBase.setUp();
+    }
+
+    protected int getWarmupIterations() {
+        return 5;
+    }
+
+    protected int getMeasuredIterations() {
+        return 20;
+    }
+
+    @Test
+    public void compare_example() {
+        compare("test_example", (disableNativeGradient, graph) -> {
+            var a = graph.leaf(testBase.createGradValue(-4f, true));
+            var b = graph.leaf(testBase.createGradValue(2.0f, true));
+            if (disableNativeGradient) {
+                a.getGradNode().setDisableNativeGradient(true);
+                b.getGradNode().setDisableNativeGradient(true);
+            }
+            return testBase.exampleGraph(a, b);
+        });
+    }
+
+    @Test
+    public void compare_scalartensor_addition() {
+        compareAddition("test_scalartensor_addition", true, new int[] {2, 2}, true, new int[0], false);
+    }
+
+    @Test
+    public void compare_scalartensor_addition_second_without_requires_grad() {
+        compareAddition("test_scalartensor_addition_second_without_requires_grad", true, new int[] {2, 2},
+                false, new int[0], false);
+    }
+
+    @Test
+    public void compare_scalartensor_addition_first_without_requires_grad() {
+        compareAddition("test_scalartensor_addition_first_without_requires_grad", false, new int[] {2, 2},
+                true, new int[0], false);
+    }
+
+    @Test
+    public void compare_scalartensor_addition_reversed() {
+        compareAddition("test_scalartensor_addition_reversed", true, new int[] {2, 2}, true, new int[0], true);
+    }
+
+    @Test
+    public void compare_both_scalartensor_addition() {
+        compareAddition("test_both_scalartensor_addition", true, new int[0], true, new int[0], false);
+    }
+
+    @Test
+    public void compare_both_scalartensor_addition_second_without_requires_grad() {
+        compareAddition("test_both_scalartensor_addition_second_without_requires_grad", true, new int[0],
+                false, new int[0], false);
+    }
+
+    @Test
+    public void compare_both_scalartensor_addition_first_without_requires_grad() {
+        compareAddition("test_both_scalartensor_addition_first_without_requires_grad", false, new int[0],
+                true, new int[0], false);
+    }
+
+    @Test
+    public void compare_both_scalartensor_addition_reversed() {
+        compareAddition("test_both_scalartensor_addition_reversed", true, new int[0], true, new int[0], true);
+    }
+
+    @Test
+    public void compare_scalarbroadcast_addition() {
+        compareAddition("test_scalarbroadcast_addition", true, new int[] {2, 2}, true, new int[0], false);
+    }
+
+    @Test
+    public void compare_scalarbroadcast_addition_second_without_requires_grad() {
+        compareAddition("test_scalarbroadcast_addition_second_without_requires_grad", true, new int[] {2, 2},
+                false, new int[] {1, 1}, false);
+    }
+
+    @Test
+    public void compare_scalarbroadcast_addition_first_without_requires_grad() {
+        compareAddition("test_scalarbroadcast_addition_first_without_requires_grad", false, new int[] {2, 2},
+                true, new int[] {1, 1}, false);
+    }
+
+    @Test
+    public void compare_scalarbroadcast_addition_reversed() {
+        compareAddition("test_scalarbroadcast_addition_reversed", true, new int[] {2, 2}, true,
+                new int[] {1, 1}, true);
+    }
+
+    @Test
+    public void compare_tensor_addition() {
+        compareAddition("test_tensor_addition", true, new int[] {2, 2}, true, new int[] {2, 2}, false);
+    }
+
+    @Test
+    public void compare_tensor_addition_second_without_requires_grad() {
+        compareAddition("test_tensor_addition_second_without_requires_grad", true, new int[] {2, 2}, false,
+                new int[] {2, 2}, false);
+    }
+
+    @Test
+    public void compare_tensor_addition_first_without_requires_grad() {
+        compareAddition("test_tensor_addition_first_without_requires_grad", false, new int[] {2, 2}, true,
+                new int[] {2, 2}, false);
+    }
+
+    @Test
+    public void compare_tensor_addition_reversed() {
+        compareAddition("test_tensor_addition_reversed", true, new int[] {2, 2}, true, new int[] {2, 2}, true);
+    }
+
+    @Test
+    public void compare_tensor_broadcast_addition() {
+        compareAddition("test_tensor_broadcast_addition", true, new int[] {2, 128, 128}, true,
+                new int[] {1, 128, 128}, false);
+    }
+
+    @Test
+    public void compare_tensor_broadcast_addition2() {
+        compareAddition("test_tensor_broadcast_addition2", true, new int[] {2, 128, 65}, true,
+                new int[] {1, 65}, false);
+    }
+
+    @Test
+    public void compare_scalar_addition() {
+        compare("test_scalar_addition", (disableNativeGradient, graph) -> {
+            var a = graph.leaf(randomLeaf(graph, true, 2, 2));
+            graph.upstreamGradient(autogradTestBase.createOnesTensor(false, 2, 2).mul(2f));
+            return autogradTestBase.scalarAdditionGraph(a, 0.5f, disableNativeGradient);
+        });
+    }
+
+    @Test
+    public void compare_tensor_filter() {
+        Assume.assumeTrue(autogradTestBase.isSliceBackwardSupported());
+        compare("test_tensor_filter", (disableNativeGradient, graph) -> {
+            var a = graph.leaf(randomLeaf(graph, true, 2, 3));
+            graph.upstreamGradient(autogradTestBase.createOnesTensor(false, 1, 2));
+            return autogradTestBase.filterGraph(a, disableNativeGradient);
+        });
+    }
+
+    @Test
+    public void compare_hessian_vector() {
+        compare("test_hessian_vector", (disableNativeGradient, graph) -> {
+            var x = graph.leaf(randomLeaf(graph, true, 2, 2));
+            var y = graph.leaf(randomLeaf(graph, true, 2, 2));
+            graph.upstreamGradient(autogradTestBase.createOnesTensor(false, 2, 2));
+            graph.differentiateGradients(() -> autogradTestBase.hessianVectorGradientSum(x, y),
+                    autogradTestBase.createOnesTensor(false, 2, 2));
+            return autogradTestBase.hessianVectorGraph(x, y, disableNativeGradient);
+        });
+    }
+
+    /**
+     * The AutogradTestBase additions: a + b, or b + a if reversed, back-propagating twos.
+     */
+    private void compareAddition(String scenarioName, boolean firstRequiresGrad, int[] dimensions,
+            boolean secondRequiresGrad, int[] otherDimensions, boolean reversed) {
+        compare(scenarioName, (disableNativeGradient, graph) -> {
+            var a = graph.leaf(randomLeaf(graph, firstRequiresGrad, dimensions));
+            var b = graph.leaf(randomLeaf(graph, secondRequiresGrad, otherDimensions));
+            graph.upstreamGradient(autogradTestBase.createOnesTensor(false, dimensions).mul(2f));
+            return reversed ? autogradTestBase.additionGraph(b, a, disableNativeGradient)
+                    : autogradTestBase.additionGraph(a, b, disableNativeGradient);
+        });
+    }
+
+    /**
+     * @return A leaf with the same values in every run of the scenario, so that both gradient
+     *         paths can be checked against each other.
+     */
+    private T randomLeaf(Graph<T> graph, boolean requiresGrad, int... dimensions) {
+        int numel = 1;
+        for (int dimension : dimensions) {
+            numel *= dimension;
+        }
+        var data = new float[numel];
+        for (int i = 0; i < numel; i++) {
+            data[i] = graph.random.nextFloat() * 2 - 1;
+        }
+        var leaf = testBase.createGradValue(data, dimensions);
+        if (requiresGrad) {
+            leaf.requires_grad_(true);
+        }
+        return leaf;
+    }
+
+    protected void compare(String scenarioName, GradientScenario<T> scenario) {
+        var nativeResult = run(scenario, false);
+        var nonNativeResult = run(scenario, true);
+
+        Assert.assertEquals(nativeResult.leafGradients.size(), nonNativeResult.leafGradients.size());
+        for (int i = 0; i < nativeResult.leafGradients.size(); i++) {
+            testBase.assertEquals(nativeResult.leafGradients.get(i), nonNativeResult.leafGradients.get(i));
+        }
+
+        System.out.println(String.format("%-64s %-12s %16s %18s %8s", "scenario", "gradient", "backward (us)",
+                "allocated (bytes)", "nodes"));
+        System.out.println(format(scenarioName, "native", nativeResult));
+        System.out.println(format(scenarioName, "non-native", nonNativeResult));
+    }
+
+    private ScenarioResult<D> run(GradientScenario<T> scenario, boolean disableNativeGradient) {
+        for (int i = 0; i < getWarmupIterations(); i++) {
+            var graph = new Graph<T>();
+            graph.backward(scenario.forward(disableNativeGradient, graph));
+        }
+        long wallTimeNanos = 0;
+        long allocatedBytes = 0;
+        int nodeCount = 0;
+        Graph<T> graph = null;
+        for (int i = 0; i < getMeasuredIterations(); i++) {
+            graph = new Graph<>();
+            var root = scenario.forward(disableNativeGradient, graph);
+            // Counted before backward, which may release the graph
+            nodeCount = countNodes(root);
+            var backwardGraph = graph;
+            var usage = ResourceUsage.measure(() -> backwardGraph.backward(root));
+            wallTimeNanos += usage.getWallTimeNanos();
+            allocatedBytes += usage.getAllocatedBytes();
+        }
+        var leafGradients = new ArrayList<D>();
+        for (T leaf : graph.leaves) {
+            if (leaf.requires_grad()) {
+                leafGradients.add(leaf.grad().data().get());
+            }
+        }
+        return new ScenarioResult<>(wallTimeNanos / getMeasuredIterations(),
+                ResourceUsage.isAllocationMeasurementSupported() ? allocatedBytes / getMeasuredIterations() : -1,
+                nodeCount, leafGradients);
+    }
+
+    /**
+     * @return The number of distinct nodes reachable from the gradient node of the root.
+     */
+    private static int countNodes(Tensor<?, ?> root) {
+        Set<GradNode<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        var pending = new ArrayDeque<GradNode<?>>();
+        pending.push(root.getGradNode());
+        while (!pending.isEmpty()) {
+            var node = pending.pop();
+            if (visited.add(node)) {
+                for (GradNode<?> next : node.next()) {
+                    pending.push(next);
+                }
+            }
+        }
+        return visited.size();
+    }
+
+    private static String format(String scenarioName, String mode, ScenarioResult<?> result) {
+        return String.format("%-64s %-12s %16.1f %18d %8d", scenarioName, mode, result.wallTimeNanos / 1000d,
+                result.allocatedBytes, result.nodeCount);
+    }
+
+    /**
+     * Builds the forward graph of a scenario, registering each leaf with the graph, and returns
+     * the node that backward is called on.
+     */
+    protected interface GradientScenario<T extends Tensor<T, ?>> {
+
+        T forward(boolean disableNativeGradient, Graph<T> graph);
+    }
+
+    /**
+     * Records the leaves created by a scenario, the gradient to back-propagate if it is not ones,
+     * and the graph built from the gradients of the leaves, if they are differentiated again.
+     */
+    protected static class Graph<T extends Tensor<T, ?>> {
+
+        private final Random random = new Random(1);
+        private final List<T> leaves = new ArrayList<>();
+        private T upstreamGradient;
+        private Supplier<T> gradientGraph;
+        private T gradientGraphUpstreamGradient;
+
+        public T leaf(T leaf) {
+            leaves.add(leaf);
+            return leaf;
+        }
+
+        public void upstreamGradient(T gradient) {
+            this.upstreamGradient = gradient;
+        }
+
+        /**
+         * Keeps the graph on the first backward pass, then back-propagates the given gradient
+         * through the graph built from the gradients of the leaves.
+         */
+        public void differentiateGradients(Supplier<T> gradientGraph, T upstreamGradient) {
+            this.gradientGraph = gradientGraph;
+            this.gradientGraphUpstreamGradient = upstreamGradient;
+        }
+
+        private void backward(T root) {
+            if (gradientGraph != null) {
+                root.backward(upstreamGradient, new BackwardConfig().with_keep_graph(true));
+                gradientGraph.get().backward(gradientGraphUpstreamGradient);
+            } else if (upstreamGradient == null) {
+                root.backward();
+            } else {
+                root.backward(upstreamGradient);
+            }
+        }
+    }
+
+    private static class ScenarioResult<D> {
+
+        private final long wallTimeNanos;
+        private final long allocatedBytes;
+        private final int nodeCount;
+        private final List<D> leafGradients;
+
+        ScenarioResult(long wallTimeNanos, long allocatedBytes, int nodeCount, List<D> leafGradients) {
+            this.wallTimeNanos = wallTimeNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.nodeCount = nodeCount;
+            this.leafGradients = leafGradients;
+        }
+    }
+}
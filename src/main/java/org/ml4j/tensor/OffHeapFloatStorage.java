@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.lang.ref.Cleaner;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Float storage held off heap in native-order direct buffers, so large tensors neither inflate
+ * the heap nor lengthen garbage collection pauses.
+ *
+ * Storage is reference counted: it starts with one reference, each retain() adds one, and the
+ * memory is freed as soon as the last reference is released, rather than when the buffers are
+ * garbage collected. Each view returned by asFloatBuffer() holds a reference until the view is
+ * garbage collected, and the bulk operations hold one while they run. Buffers derived from a
+ * view with duplicate() or slice() keep the underlying direct buffer reachable but not the view,
+ * so once a view has been taken the memory is freed when the direct buffers are collected,
+ * rather than by the last release, which could otherwise free memory a derived buffer still reads.
+ *
+ * getAllocatedBytes() counts memory until it is actually freed, so storage which has been viewed
+ * is counted until its buffers are collected, not only until its last release.
+ *
+ * get() and set() only check, without writing to the reference count, that the storage has not
+ * been released, as FloatArena buffers check once per acquisition rather than per access. Any
+ * access which the last release happens before fails with an IllegalStateException. An access
+ * concurrent with the last release would read memory being freed, so a caller whose accesses
+ * may race it, such as a kernel on another thread, must retain the storage once for its run of
+ * accesses and release it afterwards, which fails with an IllegalStateException instead.
+ * Storage larger than a single buffer can address is split into chunks, so lengths and indices
+ * are longs.
+ */
+public class OffHeapFloatStorage implements AutoCloseable {
+
+    private static final int CHUNK_SHIFT = 28;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final AtomicLong ALLOCATED_BYTES = new AtomicLong();
+    private static final Deallocator DEALLOCATOR = Deallocator.create();
+    private static final Cleaner VIEW_CLEANER = Cleaner.create();
+
+    private final long length;
+    private final FloatBuffer[] chunks;
+    private final ByteBuffer[] byteBuffers;
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+    private volatile boolean viewed;
+
+    public OffHeapFloatStorage(long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative storage length " + length);
+        }
+        this.length = length;
+        int chunkCount = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        this.chunks = new FloatBuffer[chunkCount];
+        this.byteBuffers = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            int chunkLength = (int) Math.min(CHUNK_SIZE, length - ((long) i << CHUNK_SHIFT));
+            byteBuffers[i] = ByteBuffer.allocateDirect(chunkLength * Float.BYTES).order(ByteOrder.nativeOrder());
+            chunks[i] = byteBuffers[i].asFloatBuffer();
+        }
+        ALLOCATED_BYTES.addAndGet(length * Float.BYTES);
+    }
+
+    public static OffHeapFloatStorage of(float[] values) {
+        var storage = new OffHeapFloatStorage(values.length);
+        storage.copyFrom(values, 0);
+        return storage;
+    }
+
+    /**
+     * @return The bytes of off-heap storage currently allocated and not yet freed.
+     */
+    public static long getAllocatedBytes() {
+        return ALLOCATED_BYTES.get();
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Reads a value, which the caller must hold a reference for if a release may race it.
+     */
+    public float get(long index) {
+        return chunk(index).get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * Writes a value, which the caller must hold a reference for if a release may race it.
+     */
+    public void set(long index, float value) {
+        chunk(index).put((int) (index & CHUNK_MASK), value);
+    }
+
+    /**
+     * Copies the values into the storage, starting at the offset.
+     */
+    public void copyFrom(float[] values, long offset) {
+        acquire();
+        try {
+            checkRange(offset, values.length);
+            int copied = 0;
+            while (copied < values.length) {
+                long index = offset + copied;
+                var chunk = chunks[(int) (index >>> CHUNK_SHIFT)].duplicate();
+                chunk.position((int) (index & CHUNK_MASK));
+                int count = Math.min(chunk.remaining(), values.length - copied);
+                chunk.put(values, copied, count);
+                copied += count;
+            }
+        } finally {
+            release();
+        }
+    }
+
+    public float[] toFloatArray() {
+        acquire();
+        try {
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Storage of " + length + " floats is too large for an array");
+            }
+            var values = new float[(int) length];
+            int copied = 0;
+            for (var chunk : chunks) {
+                var source = chunk.duplicate();
+                source.rewind();
+                int count = source.remaining();
+                source.get(values, copied, count);
+                copied += count;
+            }
+            return values;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * @return A read-only view of the storage, for storage which fits in a single chunk.
+     */
+    public FloatBuffer asFloatBuffer() {
+        return asFloatBuffer(0, (int) Math.min(length, CHUNK_SIZE), false);
+    }
+
+    /**
+     * A view of part of the storage, for storage which fits in a single chunk. The view holds a
+     * reference to the storage until it is garbage collected, so it remains readable after the
+     * other references are released. Buffers derived from the view with duplicate(), slice() or
+     * asReadOnlyBuffer() remain readable too, as the memory is then only freed once every buffer
+     * sharing it has been collected.
+     */
+    public FloatBuffer asFloatBuffer(long offset, int count, boolean writable) {
+        acquire();
+        try {
+            if (chunks.length > 1) {
+                throw new IllegalStateException("Storage of " + length + " floats spans " + chunks.length
+                        + " buffers");
+            }
+            checkRange(offset, count);
+            FloatBuffer view;
+            if (chunks.length == 0) {
+                view = FloatBuffer.allocate(0);
+            } else {
+                var chunk = chunks[0].duplicate();
+                chunk.position((int) offset).limit((int) offset + count);
+                view = chunk.slice();
+            }
+            if (!writable) {
+                view = view.asReadOnlyBuffer();
+            }
+            viewed = true;
+            retain();
+            VIEW_CLEANER.register(view, this::release);
+            return view;
+        } finally {
+            release();
+        }
+    }
+
+    public int getReferenceCount() {
+        return referenceCount.get();
+    }
+
+    public boolean isReleased() {
+        return referenceCount.get() == 0;
+    }
+
+    /**
+     * Adds a reference, for a view or tensor sharing this storage.
+     */
+    public OffHeapFloatStorage retain() {
+        acquire();
+        return this;
+    }
+
+    /**
+     * Removes a reference, freeing the memory when it was the last. Only the release which takes
+     * the count to zero frees the memory, and no access can acquire a reference after that. The
+     * memory of storage which has been viewed is left to be freed, and uncounted, when its
+     * buffers are collected.
+     *
+     * @return Whether this was the last reference.
+     */
+    public boolean release() {
+        int count;
+        do {
+            count = referenceCount.get();
+            if (count == 0) {
+                throw new IllegalStateException("Off-heap storage has already been released");
+            }
+        } while (!referenceCount.compareAndSet(count, count - 1));
+        if (count > 1) {
+            return false;
+        }
+        boolean free = !viewed;
+        for (int i = 0; i < byteBuffers.length; i++) {
+            var buffer = byteBuffers[i];
+            // Unreadable before it is freed, so a later unretained access fails rather than reads it
+            chunks[i] = null;
+            byteBuffers[i] = null;
+            long bytes = buffer.capacity();
+            if (free) {
+                DEALLOCATOR.free(buffer);
+                ALLOCATED_BYTES.addAndGet(-bytes);
+            } else {
+                // Every buffer derived from it references the buffer, so it is collected with the last of them
+                VIEW_CLEANER.register(buffer, () -> ALLOCATED_BYTES.addAndGet(-bytes));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * Adds a reference for the duration of an access, failing if the memory has been freed.
+     */
+    private void acquire() {
+        int count;
+        do {
+            count = referenceCount.get();
+            if (count == 0) {
+                throw new IllegalStateException("Off-heap storage used after it was released");
+            }
+        } while (!referenceCount.compareAndSet(count, count + 1));
+    }
+
+    private FloatBuffer chunk(long index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside storage of length " + length);
+        }
+        var chunk = referenceCount.get() == 0 ? null : chunks[(int) (index >>> CHUNK_SHIFT)];
+        if (chunk == null) {
+            throw new IllegalStateException("Off-heap storage used after it was released");
+        }
+        return chunk;
+    }
+
+    private void checkRange(long offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + count)
+                    + ") is outside storage of length " + length);
+        }
+    }
+
+    /**
+     * Frees direct buffers immediately where the JVM allows it, otherwise leaves them to be freed
+     * when they are garbage collected.
+     */
+    private static final class Deallocator {
+
+        private final Object unsafe;
+        private final Method invokeCleaner;
+
+        private Deallocator(Object unsafe, Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        private static Deallocator create() {
+            try {
+                var unsafeClass = Class.forName("sun.misc.Unsafe");
+                var theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Deallocator(theUnsafe.get(null), unsafeClass.getMethod("invokeCleaner",
+                        ByteBuffer.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return new Deallocator(null, null);
+            }
+        }
+
+        private void free(ByteBuffer buffer) {
+            if (invokeCleaner == null) {
+                return;
+            }
+            try {
+                invokeCleaner.invoke(unsafe, buffer);
+            } catch (ReflectiveOperationException e) {
+                // Left to be freed on collection
+            }
+        }
+    }
+}
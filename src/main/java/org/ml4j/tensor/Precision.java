@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+/**
+ * The floating point formats tensor data may be stored in, with the 16-bit encodings rounding
+ * to nearest, ties to even.
+ */
+public enum Precision {
+
+    FLOAT32(0x1p-23f), BFLOAT16(0x1p-8f), FLOAT16(0x1p-11f);
+
+    /**
+     * The number of rounding steps a scenario's expected values are allowed to be off by.
+     */
+    private static final float ROUNDING_STEPS = 8;
+
+    private final float epsilon;
+
+    Precision(float epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * @return The difference between 1 and the next representable value.
+     */
+    public float getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * @return The tolerance for comparing against an expected value, which is at least the given delta.
+     */
+    public float tolerance(float expected, float delta) {
+        return Math.max(delta, Math.abs(expected) * epsilon * ROUNDING_STEPS);
+    }
+
+    /**
+     * @return The 16-bit encoding of the value, for BFLOAT16 and FLOAT16 only.
+     */
+    public short encode(float value) {
+        switch (this) {
+            case BFLOAT16:
+                return floatToBFloat16(value);
+            case FLOAT16:
+                return floatToFloat16(value);
+            default:
+                throw new UnsupportedOperationException(this + " values are not stored in 16 bits");
+        }
+    }
+
+    public float decode(short value) {
+        switch (this) {
+            case BFLOAT16:
+                return Float.intBitsToFloat((value & 0xffff) << 16);
+            case FLOAT16:
+                return float16ToFloat(value);
+            default:
+                throw new UnsupportedOperationException(this + " values are not stored in 16 bits");
+        }
+    }
+
+    private static short floatToBFloat16(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        if (Float.isNaN(value)) {
+            return (short) ((bits >>> 16) | 0x40);
+        }
+        return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+    }
+
+    private static short floatToFloat16(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) {
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0) {
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        // A carry out of the mantissa correctly increments the exponent, up to infinity
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    private static float float16ToFloat(short value) {
+        int sign = (value & 0x8000) << 16;
+        int exponent = (value >>> 10) & 0x1f;
+        int mantissa = value & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float magnitude = mantissa * 0x1p-24f;
+            return sign == 0 ? magnitude : -magnitude;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Wall time and heap allocation of a block of work run on the current thread.
+ *
+ * Allocation is read from com.sun.management.ThreadMXBean, and is reported as -1 on JVMs
+ * which do not support per-thread allocation accounting.
+ */
+public final class ResourceUsage {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+    private final long wallTimeNanos;
+    private final long allocatedBytes;
+
+    public ResourceUsage(long wallTimeNanos, long allocatedBytes) {
+        this.wallTimeNanos = wallTimeNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public static ResourceUsage measure(Runnable work) {
+        long allocatedBytesAtStart = currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        work.run();
+        long wallTimeNanos = System.nanoTime() - start;
+        return new ResourceUsage(wallTimeNanos, allocatedBytesSince(allocatedBytesAtStart));
+    }
+
+    public static boolean isAllocationMeasurementSupported() {
+        return THREAD_MX_BEAN != null;
+    }
+
+    /**
+     * @return The total number of bytes allocated so far by the current thread, or -1 if unsupported.
+     */
+    public static long currentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN == null) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return The number of bytes allocated by the current thread since the given reading, or -1 if unsupported.
+     */
+    public static long allocatedBytesSince(long allocatedBytesAtStart) {
+        if (allocatedBytesAtStart < 0) {
+            return -1;
+        }
+        return currentThreadAllocatedBytes() - allocatedBytesAtStart;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        var bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            var sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceUsage [wallTimeNanos=" + wallTimeNanos + ", allocatedBytes=" + allocatedBytes + "]";
+    }
+}
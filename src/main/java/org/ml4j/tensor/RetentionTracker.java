@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks tensors through weak references, so tests can tell how many of them, and how many
+ * bytes of their data, are still strongly reachable.
+ */
+public class RetentionTracker {
+
+    private static final long SENTINEL_TIMEOUT_MILLIS = 1000;
+
+    private final List<WeakReference<Tensor<?, ?>>> references = new ArrayList<>();
+    private final List<Long> sizesInBytes = new ArrayList<>();
+
+    public synchronized <X extends Tensor<?, ?>> X track(X tensor) {
+        references.add(new WeakReference<>(tensor));
+        sizesInBytes.add((long) tensor.numel() * Float.BYTES);
+        return tensor;
+    }
+
+    public synchronized int getTrackedCount() {
+        return references.size();
+    }
+
+    public synchronized int getLiveCount() {
+        int liveCount = 0;
+        for (var reference : references) {
+            if (reference.get() != null) {
+                liveCount++;
+            }
+        }
+        return liveCount;
+    }
+
+    public synchronized long getRetainedBytes() {
+        long retainedBytes = 0;
+        for (int i = 0; i < references.size(); i++) {
+            if (references.get(i).get() != null) {
+                retainedBytes += sizesInBytes.get(i);
+            }
+        }
+        return retainedBytes;
+    }
+
+    /**
+     * Repeatedly requests garbage collection until every tracked tensor has been collected or
+     * the timeout elapses.
+     *
+     * @return Whether every tracked tensor was collected.
+     */
+    public boolean awaitRelease(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        do {
+            collectGarbage();
+            if (getLiveCount() == 0) {
+                return true;
+            }
+        } while (System.currentTimeMillis() < deadline);
+        return false;
+    }
+
+    /**
+     * Requests garbage collection and waits until a collection has cleared a weak reference to an
+     * otherwise unreachable sentinel, so weak references to anything else found unreachable by it
+     * are cleared too.
+     */
+    public static void collectGarbage() {
+        var queue = new ReferenceQueue<Object>();
+        var sentinel = new WeakReference<>(new Object(), queue);
+        long deadline = System.currentTimeMillis() + SENTINEL_TIMEOUT_MILLIS;
+        try {
+            do {
+                System.gc();
+                if (queue.remove(10) == sentinel) {
+                    return;
+                }
+            } while (System.currentTimeMillis() < deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionTracker [tracked=" + getTrackedCount() + ", live=" + getLiveCount() + ", retainedBytes="
+                + getRetainedBytes() + "]";
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark comparing scalars created with createGradValue(float, boolean), which
+ * may take the scalar fast path, with single element tensors of size (1) on the general path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class ScalarTensorBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    @Param({"scalar", "general"})
+    public String path;
+
+    protected TestBase<T, D> testBase;
+    protected T left;
+    protected T right;
+
+    protected abstract TestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        testBase = createTestBase();
+        testBase.setUp();
+        left = create(-4f, false);
+        right = create(2f, false);
+    }
+
+    protected T create(float value, boolean requires_grad) {
+        return "scalar".equals(path) ? testBase.createGradValue(value, requires_grad)
+                : testBase.createGradValue(value, requires_grad, new Size(1));
+    }
+
+    @Benchmark
+    public T add() {
+        return left.add(right);
+    }
+
+    @Benchmark
+    public T mul() {
+        return left.mul(right);
+    }
+
+    @Benchmark
+    public T construct() {
+        return create(-4f, true);
+    }
+
+    /**
+     * A per-sample squared error loss with its backward pass.
+     */
+    @Benchmark
+    public T loss() {
+        var prediction = create(-4f, true);
+        var error = prediction.sub(right);
+        error.mul(error).div(2f).backward();
+        return prediction.grad();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvmpy.symbolictensors.Size;
+
+/**
+ * Sweeps matmul and broadcast addition over production-sized shapes, checks the results against
+ * a reference, and reports GFLOP/s together with the empirical growth exponent of the running
+ * time, failing when it exceeds the exponent expected of the operation.
+ */
+public abstract class ScalingTestBase<T extends Tensor<T, D>, D> {
+
+    protected TensorTestBase<T, D> testBase;
+
+    protected abstract TensorTestBase<T, D> createTestBase();
+
+    @Before
+    public void setUp() {
+        this.testBase = createTestBase();
+        this.testBase.setUp();
+    }
+
+    protected int[] getSquareMatMulSizes() {
+        return new int[] {256, 512, 1024, 2048, 4096};
+    }
+
+    protected int[] getBatchSizes() {
+        return new int[] {1, 4, 16, 64};
+    }
+
+    protected int[] getBroadcastSizes() {
+        return new int[] {256, 512, 1024, 2048, 4096};
+    }
+
+    /**
+     * The largest n of the square matmul and broadcast addition sweeps, which backends lower to
+     * keep the suite's running time down.
+     */
+    protected int getMaximumSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    protected int getRepetitions() {
+        return 3;
+    }
+
+    /**
+     * How far the fitted growth exponent may exceed the expected one before the sweep fails.
+     */
+    protected double getScalingExponentTolerance() {
+        return 0.75;
+    }
+
+    @Test
+    public void test_matmul_against_reference() {
+        var random = new Random(1);
+        int m = 33;
+        int k = 64;
+        int n = 17;
+        var leftData = randomData(random, m * k);
+        var rightData = randomData(random, k * n);
+
+        var result = testBase.createGradValue(leftData, m, k).matmul(testBase.createGradValue(rightData, k, n));
+
+        var expected = new float[m * n];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                float sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum += leftData[i * k + p] * rightData[p * n + j];
+                }
+                expected[i * n + j] = sum;
+            }
+        }
+        testBase.assertDataEquals(result, expected, 0.001f);
+    }
+
+    @Test
+    public void test_square_matmul_scaling() {
+        var sizes = capped(getSquareMatMulSizes());
+        sweep("square matmul", "n", sizes, 3, i -> {
+            int n = sizes[i];
+            var left = testBase.createGradValue(0.5f, false, new Size(n, n));
+            var right = testBase.createGradValue(2f, false, new Size(n, n));
+            double seconds = time(() -> left.matmul(right), result -> assertAllElements(result, n));
+            return new double[] {seconds, 2d * n * n * n};
+        });
+    }
+
+    @Test
+    public void test_batched_matmul_scaling() {
+        var batchSizes = getBatchSizes();
+        sweep("batched matmul (b,128,512)x(512,512)", "b", batchSizes, 1, i -> {
+            int batchSize = batchSizes[i];
+            var left = testBase.createGradValue(0.5f, false, new Size(new Size(batchSize, 128), new Size(512)));
+            var right = testBase.createGradValue(2f, false, new Size(512, 512));
+            double seconds = time(() -> left.matmul(right), result -> assertAllElements(result, 512));
+            return new double[] {seconds, 2d * batchSize * 128 * 512 * 512};
+        });
+    }
+
+    @Test
+    public void test_broadcast_addition_scaling() {
+        var sizes = capped(getBroadcastSizes());
+        sweep("broadcast addition (2,n,n)+(1,n,n)", "n", sizes, 2, i -> {
+            int n = sizes[i];
+            var left = testBase.createGradValue(1f, false, new Size(2, n, n));
+            var right = testBase.createGradValue(2f, false, new Size(1, n, n));
+            double seconds = time(() -> left.add(right), result -> assertAllElements(result, 3));
+            return new double[] {seconds, 2d * n * n};
+        });
+    }
+
+    private int[] capped(int[] sizes) {
+        var capped = Arrays.stream(sizes).filter(size -> size <= getMaximumSize()).toArray();
+        Assert.assertTrue("At least two sizes are needed to fit a growth exponent", capped.length >= 2);
+        return capped;
+    }
+
+    /**
+     * Runs the measurement for each size, prints a report and asserts the fitted growth exponent.
+     *
+     * @param measurement Returns the elapsed seconds and floating point operations for the size at an index.
+     */
+    protected void sweep(String operation, String parameter, int[] sizes, double expectedExponent,
+            IntFunction<double[]> measurement) {
+        var seconds = new double[sizes.length];
+        System.out.println(String.format("%-40s %8s %14s %10s", operation, parameter, "time (ms)", "GFLOP/s"));
+        for (int i = 0; i < sizes.length; i++) {
+            var result = measurement.apply(i);
+            seconds[i] = result[0];
+            System.out.println(String.format("%-40s %8d %14.3f %10.2f", "", sizes[i], seconds[i] * 1000,
+                    result[1] / seconds[i] / 1e9));
+        }
+        double exponent = fitExponent(sizes, seconds);
+        System.out.println(String.format("%-40s growth exponent %.2f (expected %.2f)", operation, exponent,
+                expectedExponent));
+        Assert.assertTrue(operation + " grows as " + parameter + "^" + exponent + ", expected " + parameter + "^"
+                + expectedExponent, exponent <= expectedExponent + getScalingExponentTolerance());
+    }
+
+    /**
+     * @return The least-squares slope of log(time) against log(size).
+     */
+    protected static double fitExponent(int[] sizes, double[] seconds) {
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            meanX += Math.log(sizes[i]) / sizes.length;
+            meanY += Math.log(seconds[i]) / sizes.length;
+        }
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            double dx = Math.log(sizes[i]) - meanX;
+            covariance += dx * (Math.log(seconds[i]) - meanY);
+            variance += dx * dx;
+        }
+        return covariance / variance;
+    }
+
+    /**
+     * @return The fastest of getRepetitions() timed runs, in seconds, after one warm-up run whose
+     *         result is checked.
+     */
+    protected double time(Supplier<T> operation, Consumer<T> check) {
+        check.accept(operation.get());
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < getRepetitions(); i++) {
+            best = Math.min(best, ResourceUsage.measure(operation::get).getWallTimeNanos());
+        }
+        return Math.max(best, 1) / 1e9;
+    }
+
+    private void assertAllElements(T result, float expected) {
+        var data = testBase.getDataAsFloatBuffer(result);
+        float delta = testBase.tolerance(expected, 0.001f * Math.max(1, Math.abs(expected)));
+        for (int i = 0; i < data.remaining(); i++) {
+            float actual = data.get(data.position() + i);
+            // Only build the failure message for a mismatch, as the largest results have 16M elements
+            if (Math.abs(actual - expected) > delta) {
+                Assert.assertEquals("Element " + i, expected, actual, delta);
+            }
+        }
+    }
+
+    private static float[] randomData(Random random, int length) {
+        var data = new float[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = random.nextFloat() * 2 - 1;
+        }
+        return data;
+    }
+}
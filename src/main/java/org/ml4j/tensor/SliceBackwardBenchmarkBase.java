@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark for backward through many small slices of one n x n parent. With a
+ * scatter-add slice backward the cost should grow with the slices, not with n.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class SliceBackwardBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    private static final int SLICES = 64;
+    private static final int SLICE_SIZE = 8;
+
+    @Param({"256", "1024", "4096"})
+    public int n;
+
+    protected T parent;
+    protected T upstreamGradient;
+
+    protected abstract TestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        var testBase = createTestBase();
+        testBase.setUp();
+        this.parent = testBase.createGradValue(1f, true, new Size(n, n));
+        this.upstreamGradient = testBase.createGradValue(1f, false, new Size(SLICE_SIZE, SLICE_SIZE));
+    }
+
+    @Benchmark
+    public T slicesBackward() {
+        int step = (n - SLICE_SIZE) / SLICES;
+        var sum = parent.getTensor(new int[] {0, SLICE_SIZE}, new int[] {0, SLICE_SIZE});
+        for (int i = 1; i < SLICES; i++) {
+            int offset = i * step;
+            sum = sum.add(parent.getTensor(new int[] {offset, offset + SLICE_SIZE},
+                    new int[] {offset, offset + SLICE_SIZE}));
+        }
+        sum.backward(upstreamGradient);
+        return parent.grad();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scatter-adds the gradients of range slices into the row-major gradient of their parent, as
+ * needed by the backward pass of getTensor(int[]...).
+ *
+ * Only the region covered by the slices is visited, so the cost grows with the slices and not
+ * with the parent. The gradients of any number of slices of one parent are accumulated in a
+ * single pass: each covered element of the parent gradient is updated once, with the sum of the
+ * gradients of every slice covering it, without intermediate dense tensors.
+ */
+public final class SliceGradients {
+
+    private SliceGradients() {
+    }
+
+    /**
+     * The gradient of a parent, accumulated into at row-major indices.
+     */
+    public interface Accumulator {
+
+        void add(int index, float value);
+    }
+
+    /**
+     * Adds the gradient of one slice into the region of the parent gradient it was taken from.
+     *
+     * @param parentGradient The gradient of the parent, accumulated into.
+     * @param parentDimensions The dimensions of the parent.
+     * @param sliceGradient The row-major gradient of the slice.
+     * @param ranges For each parent dimension, the start (inclusive) and end (exclusive) of the slice.
+     */
+    public static void scatterAdd(float[] parentGradient, int[] parentDimensions, float[] sliceGradient,
+            int[][] ranges) {
+        scatterAdd(parentGradient, parentDimensions, List.of(sliceGradient), List.<int[][]>of(ranges));
+    }
+
+    /**
+     * Adds the gradients of several slices of the same parent into the parent gradient in one pass.
+     */
+    public static void scatterAdd(float[] parentGradient, int[] parentDimensions, List<float[]> sliceGradients,
+            List<int[][]> ranges) {
+        scatterAdd((index, value) -> parentGradient[index] += value, parentDimensions, sliceGradients, ranges);
+    }
+
+    /**
+     * Adds the gradients of several slices of the same parent into the parent gradient in one pass.
+     *
+     * @param parentGradient The gradient of the parent, accumulated into once for each element
+     *        covered by any of the slices.
+     * @param parentDimensions The dimensions of the parent.
+     * @param sliceGradients The row-major gradient of each slice, which may be longer than the
+     *        slice, such as when taken from a pool, in which case only its leading elements are read.
+     * @param ranges For each slice, and each parent dimension, the start (inclusive) and end
+     *        (exclusive) of the slice.
+     */
+    public static void scatterAdd(Accumulator parentGradient, int[] parentDimensions, List<float[]> sliceGradients,
+            List<int[][]> ranges) {
+        if (sliceGradients.size() != ranges.size()) {
+            throw new IllegalArgumentException("Expected ranges for each of the " + sliceGradients.size()
+                    + " slice gradients");
+        }
+        int rank = parentDimensions.length;
+        int count = sliceGradients.size();
+        var gradients = sliceGradients.toArray(new float[0][]);
+        var windows = ranges.toArray(new int[0][][]);
+        // The stride of each dimension in the row-major gradient of each slice
+        var sliceStrides = new int[count][rank];
+        var active = new int[count];
+        int activeCount = 0;
+        for (int w = 0; w < count; w++) {
+            int sliceLength = checkRanges(parentDimensions, windows[w]);
+            if (gradients[w].length < sliceLength) {
+                throw new IllegalArgumentException("Slice gradient has " + gradients[w].length
+                        + " elements, expected at least " + sliceLength);
+            }
+            int stride = 1;
+            for (int d = rank - 1; d >= 0; d--) {
+                sliceStrides[w][d] = stride;
+                stride *= windows[w][d][1] - windows[w][d][0];
+            }
+            if (sliceLength > 0) {
+                active[activeCount++] = w;
+            }
+        }
+        if (activeCount == 0) {
+            return;
+        }
+        if (rank == 0) {
+            float sum = 0;
+            for (int i = 0; i < activeCount; i++) {
+                sum += gradients[active[i]][0];
+            }
+            parentGradient.add(0, sum);
+            return;
+        }
+        var parentStrides = new int[rank];
+        int stride = 1;
+        for (int d = rank - 1; d >= 0; d--) {
+            parentStrides[d] = stride;
+            stride *= parentDimensions[d];
+        }
+        new Pass(parentGradient, parentStrides, gradients, windows, sliceStrides).visit(0, 0, active, activeCount,
+                new int[count]);
+    }
+
+    /**
+     * @return The number of elements in the slice.
+     */
+    private static int checkRanges(int[] parentDimensions, int[][] ranges) {
+        if (ranges.length != parentDimensions.length) {
+            throw new IllegalArgumentException("Expected a range for each of the dimensions " + Arrays.toString(
+                    parentDimensions));
+        }
+        int sliceLength = 1;
+        for (int i = 0; i < ranges.length; i++) {
+            if (ranges[i][0] < 0 || ranges[i][1] > parentDimensions[i] || ranges[i][0] > ranges[i][1]) {
+                throw new IllegalArgumentException("Range " + Arrays.toString(ranges[i]) + " is outside dimension "
+                        + i + " of " + Arrays.toString(parentDimensions));
+            }
+            sliceLength *= ranges[i][1] - ranges[i][0];
+        }
+        return sliceLength;
+    }
+
+    /**
+     * Walks the union of the slices one dimension at a time. Along each dimension the boundaries of
+     * the slices still covering the current position split it into segments, each covered by a
+     * fixed set of slices, and segments covered by none are skipped.
+     */
+    private static final class Pass {
+
+        private final Accumulator parentGradient;
+        private final int[] parentStrides;
+        private final float[][] gradients;
+        private final int[][][] windows;
+        private final int[][] sliceStrides;
+
+        private Pass(Accumulator parentGradient, int[] parentStrides, float[][] gradients, int[][][] windows,
+                int[][] sliceStrides) {
+            this.parentGradient = parentGradient;
+            this.parentStrides = parentStrides;
+            this.gradients = gradients;
+            this.windows = windows;
+            this.sliceStrides = sliceStrides;
+        }
+
+        /**
+         * @param active The slices covering the position so far, in its first activeCount elements.
+         * @param sliceOffsets The offset of the position so far into the gradient of each slice.
+         */
+        private void visit(int dimension, int parentOffset, int[] active, int activeCount, int[] sliceOffsets) {
+            var boundaries = new int[2 * activeCount];
+            for (int i = 0; i < activeCount; i++) {
+                boundaries[2 * i] = windows[active[i]][dimension][0];
+                boundaries[2 * i + 1] = windows[active[i]][dimension][1];
+            }
+            Arrays.sort(boundaries);
+            boolean last = dimension == parentStrides.length - 1;
+            var covering = new int[activeCount];
+            for (int b = 0; b < boundaries.length - 1; b++) {
+                int start = boundaries[b];
+                int end = boundaries[b + 1];
+                if (start == end) {
+                    continue;
+                }
+                int coveringCount = 0;
+                for (int i = 0; i < activeCount; i++) {
+                    int w = active[i];
+                    if (windows[w][dimension][0] <= start && end <= windows[w][dimension][1]) {
+                        covering[coveringCount++] = w;
+                    }
+                }
+                if (coveringCount == 0) {
+                    continue;
+                }
+                if (last) {
+                    addSegment(parentOffset, start, end, covering, coveringCount, sliceOffsets);
+                } else {
+                    var nextActive = Arrays.copyOf(covering, coveringCount);
+                    for (int i = start; i < end; i++) {
+                        for (int c = 0; c < coveringCount; c++) {
+                            int w = covering[c];
+                            sliceOffsets[w] += (i - windows[w][dimension][0]) * sliceStrides[w][dimension];
+                        }
+                        visit(dimension + 1, parentOffset + i * parentStrides[dimension], nextActive, coveringCount,
+                                sliceOffsets);
+                        for (int c = 0; c < coveringCount; c++) {
+                            int w = covering[c];
+                            sliceOffsets[w] -= (i - windows[w][dimension][0]) * sliceStrides[w][dimension];
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addSegment(int parentOffset, int start, int end, int[] covering, int coveringCount,
+                int[] sliceOffsets) {
+            int dimension = parentStrides.length - 1;
+            for (int i = start; i < end; i++) {
+                float sum = 0;
+                for (int c = 0; c < coveringCount; c++) {
+                    int w = covering[c];
+                    sum += gradients[w][sliceOffsets[w] + i - windows[w][dimension][0]];
+                }
+                parentGradient.add(parentOffset + i, sum);
+            }
+        }
+    }
+}
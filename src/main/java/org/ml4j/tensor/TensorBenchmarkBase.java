@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark for Tensor implementations.
+ *
+ * Tensors are created through the factory hooks of an existing conformance test, so a backend
+ * only needs to return its TestBase subclass from createTestBase() to be benchmarked.
+ *
+ * Build and run with: mvn -Pjmh package && java -jar target/benchmarks.jar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class TensorBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    /**
+     * The shape of the benchmarked tensors, as dimensions separated by 'x'.
+     */
+    @Param({"2x2", "128x128", "1024x1024"})
+    public String shape;
+
+    protected TestBase<T, D> testBase;
+
+    protected T left;
+    protected T right;
+    protected T square;
+
+    protected T gradLeft;
+    protected T gradRight;
+
+    protected abstract TestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        this.testBase = createTestBase();
+        this.testBase.setUp();
+        var size = parseSize(shape);
+        var dimensions = size.dimensions();
+        var lastDimension = dimensions[dimensions.length - 1];
+        this.left = testBase.createGradValue(2f, false, size);
+        this.right = testBase.createGradValue(3f, false, size);
+        this.square = testBase.createGradValue(0.5f, false, new Size(lastDimension, lastDimension));
+        this.gradLeft = testBase.createGradValue(2f, true, size);
+        this.gradRight = testBase.createGradValue(3f, true, size);
+        if (!isNativeGradientExpected()) {
+            gradLeft.getGradNode().setDisableNativeGradient(true);
+            gradRight.getGradNode().setDisableNativeGradient(true);
+        }
+    }
+
+    /**
+     * Whether backward() should be benchmarked along the native gradient path, where supported.
+     */
+    protected boolean isNativeGradientExpected() {
+        return true;
+    }
+
+    @Benchmark
+    public T add() {
+        return left.add(right);
+    }
+
+    @Benchmark
+    public T mul() {
+        return left.mul(right);
+    }
+
+    @Benchmark
+    public T relu() {
+        return left.relu();
+    }
+
+    @Benchmark
+    public T matmul() {
+        return left.matmul(square);
+    }
+
+    @Benchmark
+    public T sum() {
+        return left.sum();
+    }
+
+    @Benchmark
+    public T backward() {
+        var loss = gradLeft.mul(gradRight).add(gradLeft).relu().sum();
+        loss.backward();
+        return gradLeft.grad();
+    }
+
+    protected static Size parseSize(String shape) {
+        return new Size(Arrays.stream(shape.split("x")).mapToInt(Integer::parseInt).toArray());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark for the cost of converting a Tensor to each of the other backends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class TensorConversionBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    /**
+     * The number of rows of the converted tensor, which always has 1024 columns.
+     */
+    @Param({"1024", "4096", "16384"})
+    public int rows;
+
+    protected T tensor;
+
+    protected abstract TestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        var testBase = createTestBase();
+        testBase.setUp();
+        this.tensor = testBase.createGradValue(1f, false, new Size(rows, 1024));
+    }
+
+    @Benchmark
+    public Object toDJLTensor() {
+        return tensor.toDJLTensor();
+    }
+
+    @Benchmark
+    public Object toML4JTensor() {
+        return tensor.toML4JTensor(TensorTestBase.DEFAULT_DIRECTED_COMPONENTS_CONTEXT);
+    }
+
+    @Benchmark
+    public Object toDL4JTensor() {
+        return tensor.toDL4JTensor();
+    }
+}
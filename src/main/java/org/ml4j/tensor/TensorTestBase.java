@@ -15,7 +15,15 @@
 package org.ml4j.tensor;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.jvmpy.symbolictensors.Size;
@@ -92,13 +100,7 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
         Assert.assertEquals(4, firstColumn.get(1), 0.001f);
 
         var transposed = a.t();
-        float[] transposedData = transposed.getDataAsFloatArray();
-        Assert.assertEquals(1, transposedData[0], 0.001f);
-        Assert.assertEquals(4, transposedData[1], 0.001f);
-        Assert.assertEquals(2, transposedData[2], 0.001f);
-        Assert.assertEquals(5, transposedData[3], 0.001f);
-        Assert.assertEquals(3, transposedData[4], 0.001f);
-        Assert.assertEquals(6, transposedData[5], 0.001f);
+        assertDataEquals(transposed, new float[] {1, 4, 2, 5, 3, 6}, 0.001f);
     }
 
     protected abstract T createGradValue(float[] data, int...dims);
@@ -132,6 +134,103 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
 
     }
 
+    /**
+     * Whether toDJLTensor(), toML4JTensor() and toDL4JTensor() are expected to share the
+     * underlying buffer with the source tensor rather than copy it.
+     */
+    protected boolean isZeroCopyConversionExpected() {
+        return false;
+    }
+
+    /**
+     * Whether the two tensors, which may belong to different backends, read and write the same
+     * memory. Required by the zero-copy conversion and strided view tests, which are skipped on
+     * backends which do not override it.
+     */
+    protected boolean sharesStorage(Tensor<?, ?> first, Tensor<?, ?> second) {
+        // Storage sharing cannot be determined for this backend
+        Assume.assumeTrue(false);
+        return false;
+    }
+
+    /**
+     * Skipped unless isZeroCopyConversionExpected(). No backend tested in this repository
+     * expects it, as the reference backend cannot convert at all, so this test and the two below
+     * are inert here and only run for a backend whose conversions share its buffers.
+     */
+    @Test
+    public void test_toDJLTensor_zero_copy() {
+        assertZeroCopyConversion(a -> a.toDJLTensor());
+    }
+
+    /**
+     * As test_toDJLTensor_zero_copy, for toML4JTensor().
+     */
+    @Test
+    public void test_toML4JTensor_zero_copy() {
+        assertZeroCopyConversion(a -> a.toML4JTensor(DEFAULT_DIRECTED_COMPONENTS_CONTEXT));
+    }
+
+    /**
+     * As test_toDJLTensor_zero_copy, for toDL4JTensor().
+     */
+    @Test
+    public void test_toDL4JTensor_zero_copy() {
+        assertZeroCopyConversion(a -> a.toDL4JTensor());
+    }
+
+    private void assertZeroCopyConversion(Function<T, Tensor<?, ?>> conversion) {
+        Assume.assumeTrue(isZeroCopyConversionExpected());
+
+        var a = createGradValue(new float[] {1, 2, 3, 4, 5, 6}, 2, 3);
+        var converted = conversion.apply(a);
+
+        Assert.assertTrue(sharesStorage(a, converted));
+        assertDataExpectations(converted);
+
+        var large = createGradValue(1f, false, new Size(1024, 1024));
+        conversion.apply(large);
+        long allocatedBytes = measureAllocatedBytes(() -> conversion.apply(large));
+        if (allocatedBytes >= 0) {
+            Assert.assertTrue("Conversion allocated " + allocatedBytes + " bytes for a " + large.numel()
+                    + " element tensor", allocatedBytes < large.numel() * Float.BYTES / 4);
+        }
+    }
+
+    @Test
+    public void test_data_buffer_view() {
+        var a = createGradValue(new float[] {1, 2, 3, 4, 5, 6}, 2, 3);
+
+        var buffer = getDataAsFloatBuffer(a);
+        Assert.assertTrue(buffer.isReadOnly());
+        assertDataEquals(a, new float[] {1, 2, 3, 4, 5, 6}, 0.001f);
+
+        var destination = new float[8];
+        copyDataInto(a, destination, 2);
+        var expected = new float[] {0, 0, 1, 2, 3, 4, 5, 6};
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], destination[i], tolerance(expected[i], 0.001f));
+        }
+    }
+
+    @Test
+    public void test_data_buffer_view_does_not_copy() {
+        Assume.assumeTrue(isDataBufferViewExpected());
+
+        var a = createGradValue(1f, false, new Size(1024, 1024));
+        var destination = new float[a.numel()];
+        getDataAsFloatBuffer(a);
+        copyDataInto(a, destination, 0);
+
+        long viewAllocatedBytes = measureAllocatedBytes(() -> getDataAsFloatBuffer(a));
+        long copyAllocatedBytes = measureAllocatedBytes(() -> copyDataInto(a, destination, 0));
+
+        if (viewAllocatedBytes >= 0) {
+            Assert.assertTrue("View allocated " + viewAllocatedBytes + " bytes", viewAllocatedBytes < 4096);
+            Assert.assertTrue("Copy allocated " + copyAllocatedBytes + " bytes", copyAllocatedBytes < 4096);
+        }
+    }
+
     @Test
     public void test_reshape() {
         var a = createGradValue(-4f, true, new Size(2, 128)).name_("a");
@@ -154,6 +253,84 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
         assertSize(b, new Size(1, 256));
     }
 
+    /**
+     * Whether transposes, row and column slices and contiguous views or reshapes are
+     * metadata-only views sharing the storage of their source.
+     */
+    protected boolean isStridedViewSupported() {
+        return false;
+    }
+
+    @Test
+    public void test_strided_views_share_storage() {
+        Assume.assumeTrue(isStridedViewSupported());
+
+        var a = createGradValue(new float[] {1, 2, 3, 4, 5, 6}, 2, 3);
+
+        var transposed = a.t();
+        Assert.assertTrue(sharesStorage(a, transposed));
+        assertDataEquals(transposed, new float[] {1, 4, 2, 5, 3, 6}, 0.001f);
+
+        var firstRow = a.getTensor(0, -1);
+        Assert.assertTrue(sharesStorage(a, firstRow));
+        assertDataEquals(firstRow, new float[] {1, 2, 3}, 0.001f);
+
+        var secondColumn = a.getTensor(-1, 1);
+        Assert.assertTrue(sharesStorage(a, secondColumn));
+        assertDataEquals(secondColumn, new float[] {2, 5}, 0.001f);
+
+        var range = a.getTensor(new int[] {0, 2}, new int[] {1, 3});
+        Assert.assertTrue(sharesStorage(a, range));
+        assertDataEquals(range, new float[] {2, 3, 5, 6}, 0.001f);
+
+        var view = a.view(new Size(3, 2));
+        Assert.assertTrue(sharesStorage(a, view));
+        assertDataEquals(view, new float[] {1, 2, 3, 4, 5, 6}, 0.001f);
+
+        var reshaped = a.reshape(new Size(6));
+        Assert.assertTrue(sharesStorage(a, reshaped));
+        assertDataEquals(reshaped, new float[] {1, 2, 3, 4, 5, 6}, 0.001f);
+    }
+
+    @Test
+    public void test_reshape_of_non_contiguous_view() {
+        Assume.assumeTrue(isStridedViewSupported());
+
+        var a = createGradValue(new float[] {1, 2, 3, 4, 5, 6}, 2, 3);
+
+        var reshaped = a.t().reshape(new Size(6));
+
+        assertDataEquals(reshaped, new float[] {1, 4, 2, 5, 3, 6}, 0.001f);
+        assertDataEquals(a, new float[] {1, 2, 3, 4, 5, 6}, 0.001f);
+    }
+
+    @Test
+    public void test_strided_views_do_not_copy() {
+        Assume.assumeTrue(isStridedViewSupported());
+
+        var a = createGradValue(1f, false, new Size(1024, 1024));
+
+        assertViewDoesNotCopy("t()", () -> a.t());
+        assertViewDoesNotCopy("getTensor(0, -1)", () -> a.getTensor(0, -1));
+        assertViewDoesNotCopy("getTensor(-1, 0)", () -> a.getTensor(-1, 0));
+        assertViewDoesNotCopy("view", () -> a.view(new Size(1024 * 1024)));
+        assertViewDoesNotCopy("reshape", () -> a.reshape(new Size(1024 * 1024)));
+    }
+
+    /**
+     * Takes the least of several measurements, so that one-off costs of the first calls, such as
+     * class loading or generating reflective accessors, are not mistaken for copying.
+     */
+    private void assertViewDoesNotCopy(String operation, Runnable view) {
+        long allocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            allocatedBytes = Math.min(allocatedBytes, measureAllocatedBytes(view));
+        }
+        if (allocatedBytes >= 0) {
+            Assert.assertTrue(operation + " allocated " + allocatedBytes + " bytes", allocatedBytes < 4096);
+        }
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void test_view_incorrect_size() {
         var a = createGradValue(-4f, true, new Size(2, 128)).name_("a");
@@ -185,6 +362,8 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
             b.getGradNode().setDisableNativeGradient(true);
         }
 
+        long allocatedBytes = startAllocationMeasurement();
+
         var c = a.add(b);
 
         var d = a.mul(b).add(b.mul(b).mul(b));
@@ -205,10 +384,16 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
 
         g = g.add(ten().div(f));
 
+        assertAllocationWithinBudget("test_example", AllocationPhase.FORWARD, allocatedBytes);
+
         assertEquals(createData(24.70f), g.data().get());
 
+        allocatedBytes = startAllocationMeasurement();
+
         g.backward();
 
+        assertAllocationWithinBudget("test_example", AllocationPhase.BACKWARD, allocatedBytes);
+
         if (isNativeGradientSupported()) {
             Assert.assertEquals(isNativeGradientExpected(), a.grad().isNativeGradient());
             Assert.assertEquals(isNativeGradientExpected(), b.grad().isNativeGradient());
@@ -225,6 +410,347 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
 
     }
 
+    /**
+     * The graph of test_example, for tests and benchmarks which build it repeatedly. test_example
+     * builds it inline, to check the gradients of its intermediate nodes.
+     */
+    protected T exampleGraph(T a, T b) {
+        var c = a.add(b);
+        var d = a.mul(b).add(b.mul(b).mul(b));
+        c = c.add(c.add(1));
+        c = c.add(one().add(c).sub(a));
+        d = d.add(d.mul(2).add(b.add(a).relu()));
+        d = d.add(d.mul(3).add(b.sub(a).relu()));
+        var e = c.sub(d);
+        var f = e.mul(e);
+        var g = f.div(2f);
+        return g.add(ten().div(f));
+    }
+
+    /**
+     * Whether a forward and backward graph can be captured once and replayed with new leaf values.
+     */
+    protected boolean isGraphCaptureSupported() {
+        return false;
+    }
+
+    /**
+     * Builds the graph by applying forward to the leaves, which require grad, runs backward on
+     * its output once, and returns both passes recorded for replay.
+     */
+    protected CapturedGraph<T> capture(Function<List<T>, T> forward, List<T> leaves) {
+        // Graph capture is not supported by this backend
+        Assume.assumeTrue(false);
+        return null;
+    }
+
+    private CapturedGraph<T> captureExample(float a, float b, Size size) {
+        return capture(leaves -> exampleGraph(leaves.get(0), leaves.get(1)).sum(), List.of(
+                createGradValue(a, true, size).name_("a"), createGradValue(b, true, size).name_("b")));
+    }
+
+    @Test
+    public void test_captured_example_replay() {
+        Assume.assumeTrue(isGraphCaptureSupported());
+
+        var graph = captureExample(1f, 1f, new Size());
+        var leaves = graph.getLeaves();
+
+        for (int step = 0; step < 3; step++) {
+            var g = graph.replay(List.of(createGradValue(-4f, false), createGradValue(2.0f, false)));
+
+            assertEquals(createData(24.70f), g.data().get());
+            assertEquals(createData(138.83f), leaves.get(0).grad().data().get());
+            assertEquals(createData(645.58f), leaves.get(1).grad().data().get());
+        }
+    }
+
+    @Test
+    public void test_captured_replay_matches_fresh_graph() {
+        Assume.assumeTrue(isGraphCaptureSupported());
+
+        var size = new Size(4, 4);
+        var graph = captureExample(-4f, 2f, size);
+        var leaves = graph.getLeaves();
+        var random = new Random(1);
+
+        for (int step = 0; step < 10; step++) {
+            var aData = new float[16];
+            var bData = new float[16];
+            for (int i = 0; i < aData.length; i++) {
+                aData[i] = random.nextFloat() * 8 - 4;
+                bData[i] = random.nextFloat() * 4;
+            }
+            var replayed = graph.replay(List.of(createGradValue(aData, 4, 4), createGradValue(bData, 4, 4)));
+
+            var a = createGradValue(aData, 4, 4);
+            var b = createGradValue(bData, 4, 4);
+            a.requires_grad_(true);
+            b.requires_grad_(true);
+            var fresh = exampleGraph(a, b).sum();
+            fresh.backward();
+
+            assertDataEquals(replayed, fresh, 0.01f);
+            assertDataEquals(leaves.get(0).grad(), a.grad(), 0.01f);
+            assertDataEquals(leaves.get(1).grad(), b.grad(), 0.01f);
+        }
+    }
+
+    @Test
+    public void test_captured_replay_of_different_size() {
+        Assume.assumeTrue(isGraphCaptureSupported());
+
+        var graph = captureExample(-4f, 2f, new Size(2, 2));
+        try {
+            graph.replay(List.of(createGradValue(-4f, false, new Size(3, 3)),
+                    createGradValue(2f, false, new Size(3, 3))));
+            Assert.fail("Expected replay with leaves of a different size to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_captured_replay_allocates_less_than_building() {
+        Assume.assumeTrue(isGraphCaptureSupported());
+        Assume.assumeTrue(ResourceUsage.isAllocationMeasurementSupported());
+
+        var graph = captureExample(-4f, 2f, new Size());
+        var leafValues = List.of(createGradValue(-4f, false), createGradValue(2.0f, false));
+        long replayAllocatedBytes = 0;
+        long buildAllocatedBytes = 0;
+        for (int step = 0; step < 200; step++) {
+            long allocatedBytes = startAllocationMeasurement();
+            graph.replay(leafValues);
+            allocatedBytes = ResourceUsage.allocatedBytesSince(allocatedBytes);
+            if (step >= 100) {
+                replayAllocatedBytes += allocatedBytes;
+            }
+
+            var a = createGradValue(-4f, true);
+            var b = createGradValue(2.0f, true);
+            allocatedBytes = startAllocationMeasurement();
+            exampleGraph(a, b).sum().backward();
+            allocatedBytes = ResourceUsage.allocatedBytesSince(allocatedBytes);
+            if (step >= 100) {
+                buildAllocatedBytes += allocatedBytes;
+            }
+        }
+
+        Assert.assertTrue("Replaying allocated " + replayAllocatedBytes + " bytes per 100 steps, building "
+                + buildAllocatedBytes + " bytes", replayAllocatedBytes < buildAllocatedBytes);
+    }
+
+    /**
+     * Whether backward can run independent branches of the graph concurrently, accumulating into
+     * shared nodes in a fixed order so that gradients are identical to the serial path.
+     */
+    protected boolean isParallelBackwardSupported() {
+        return false;
+    }
+
+    /**
+     * @return A config for backward which runs the independent branches of the graph on the pool.
+     */
+    protected BackwardConfig parallelBackwardConfig(ForkJoinPool pool) {
+        // Parallel backward is not supported by this backend
+        Assume.assumeTrue(false);
+        return null;
+    }
+
+    /**
+     * Independent branches from the same leaves, which only meet when they are summed.
+     */
+    protected T wideGraph(T a, T b, int branches) {
+        T sum = null;
+        for (int i = 0; i < branches; i++) {
+            var branch = a.mul(b.add(i)).sub(a.div(i + 1f)).relu().add(b.mul(b).mul(i % 3 + 1f));
+            sum = sum == null ? branch : sum.add(branch);
+        }
+        return sum.sum();
+    }
+
+    @Test
+    public void test_parallel_backward_example() {
+        Assume.assumeTrue(isParallelBackwardSupported());
+
+        var a = createGradValue(-4f, true).name_("a");
+        var b = createGradValue(2.0f, true).name_("b");
+        exampleGraph(a, b).backward(parallelBackwardConfig(ForkJoinPool.commonPool()));
+
+        assertEquals(createData(138.83f), a.grad().data().get());
+        assertEquals(createData(645.58f), b.grad().data().get());
+    }
+
+    @Test
+    public void test_parallel_backward_matches_serial_exactly() {
+        Assume.assumeTrue(isParallelBackwardSupported());
+
+        var random = new Random(1);
+        var aData = new float[64 * 64];
+        var bData = new float[64 * 64];
+        for (int i = 0; i < aData.length; i++) {
+            aData[i] = random.nextFloat() * 2 - 1;
+            bData[i] = random.nextFloat() * 2 - 1;
+        }
+        var a = createGradValue(aData, 64, 64);
+        var b = createGradValue(bData, 64, 64);
+        a.requires_grad_(true);
+        b.requires_grad_(true);
+        wideGraph(a, b, 32).backward();
+        // Compared bit for bit rather than through tolerance()
+        var aGrad = new float[aData.length];
+        var bGrad = new float[bData.length];
+        copyDataInto(a.grad(), aGrad, 0);
+        copyDataInto(b.grad(), bGrad, 0);
+        var parallelAGrad = new float[aData.length];
+        var parallelBGrad = new float[bData.length];
+
+        var pool = new ForkJoinPool(4);
+        try {
+            for (int run = 0; run < 20; run++) {
+                var parallelA = createGradValue(aData, 64, 64);
+                var parallelB = createGradValue(bData, 64, 64);
+                parallelA.requires_grad_(true);
+                parallelB.requires_grad_(true);
+                wideGraph(parallelA, parallelB, 32).backward(parallelBackwardConfig(pool));
+
+                copyDataInto(parallelA.grad(), parallelAGrad, 0);
+                copyDataInto(parallelB.grad(), parallelBGrad, 0);
+                Assert.assertArrayEquals(aGrad, parallelAGrad, 0f);
+                Assert.assertArrayEquals(bGrad, parallelBGrad, 0f);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Whether chains of elementwise operations can be evaluated lazily as a single fused pass.
+     */
+    protected boolean isElementwiseFusionSupported() {
+        return false;
+    }
+
+    /**
+     * Evaluates elementwise operations on the current thread lazily, fusing chains of them, until
+     * the returned scope is closed. Backward passes started within the scope may fuse as well.
+     */
+    protected AutoCloseable elementwiseFusionScope() {
+        // Elementwise fusion is not supported by this backend
+        Assume.assumeTrue(false);
+        return null;
+    }
+
+    @Test
+    public void test_example_fused() throws Exception {
+        Assume.assumeTrue(isElementwiseFusionSupported());
+        try (var scope = elementwiseFusionScope()) {
+            test_example();
+        }
+    }
+
+    @Test
+    public void test_hessian_vector_fused() throws Exception {
+        Assume.assumeTrue(isElementwiseFusionSupported());
+        try (var scope = elementwiseFusionScope()) {
+            test_hessian_vector();
+        }
+    }
+
+    @Test
+    public void test_sum_fused() throws Exception {
+        Assume.assumeTrue(isElementwiseFusionSupported());
+        try (var scope = elementwiseFusionScope()) {
+            test_sum();
+        }
+    }
+
+    @Test
+    public void test_fused_elementwise_chain_matches_unfused() throws Exception {
+        Assume.assumeTrue(isElementwiseFusionSupported());
+
+        var random = new Random(1);
+        var aData = new float[256 * 256];
+        var bData = new float[256 * 256];
+        for (int i = 0; i < aData.length; i++) {
+            aData[i] = random.nextFloat() * 2 - 1;
+            bData[i] = random.nextFloat() * 2 - 1;
+        }
+
+        var a = createGradValue(aData, 256, 256);
+        var b = createGradValue(bData, 256, 256);
+        a.requires_grad_(true);
+        b.requires_grad_(true);
+        var fusedA = createGradValue(aData, 256, 256);
+        var fusedB = createGradValue(bData, 256, 256);
+        fusedA.requires_grad_(true);
+        fusedB.requires_grad_(true);
+
+        // Alternate the two paths and keep the least each allocates, so that neither is measured
+        // while classes are loaded or compiled
+        T unfused = null;
+        T fused = null;
+        long unfusedAllocatedBytes = Long.MAX_VALUE;
+        long fusedAllocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long allocatedBytes = startAllocationMeasurement();
+            unfused = elementwiseChain(a, b);
+            unfusedAllocatedBytes = Math.min(unfusedAllocatedBytes, ResourceUsage.allocatedBytesSince(allocatedBytes));
+            try (var scope = elementwiseFusionScope()) {
+                allocatedBytes = startAllocationMeasurement();
+                fused = elementwiseChain(fusedA, fusedB);
+                fusedAllocatedBytes = Math.min(fusedAllocatedBytes, ResourceUsage.allocatedBytesSince(allocatedBytes));
+            }
+        }
+        unfused.backward();
+        try (var scope = elementwiseFusionScope()) {
+            fused.backward();
+        }
+
+        assertDataEquals(fused, unfused, 0.0001f);
+        assertDataEquals(fusedA.grad(), a.grad(), 0.0001f);
+        assertDataEquals(fusedB.grad(), b.grad(), 0.0001f);
+        if (unfusedAllocatedBytes >= 0) {
+            Assert.assertTrue("Fused chain allocated " + fusedAllocatedBytes + " bytes, unfused chain "
+                    + unfusedAllocatedBytes + " bytes", fusedAllocatedBytes < unfusedAllocatedBytes);
+        }
+    }
+
+    @Test
+    public void test_fused_results_unchanged_by_in_place_writes() throws Exception {
+        Assume.assumeTrue(isElementwiseFusionSupported());
+        Assume.assumeTrue(isGradientBufferReuseSupported());
+
+        var x = createGradValue(new float[] {1f, 2f, 3f, 4f}, 2, 2);
+        x.requires_grad_(true);
+        x.mul(x).sum().backward();
+
+        try (var scope = elementwiseFusionScope()) {
+            // Both read the gradient buffer of x, which zero_grad_ and backward then write in place
+            var doubled = x.grad().mul(2f);
+            var shifted = doubled.add(x.grad());
+            assertDataEquals(doubled, new float[] {4f, 8f, 12f, 16f}, 0.0001f);
+
+            zero_grad_(x);
+            x.sum().backward();
+
+            assertDataEquals(x.grad(), new float[] {1f, 1f, 1f, 1f}, 0.0001f);
+            assertDataEquals(doubled, new float[] {4f, 8f, 12f, 16f}, 0.0001f);
+            assertDataEquals(shifted, new float[] {6f, 12f, 18f, 24f}, 0.0001f);
+        }
+    }
+
+    /**
+     * A chain of elementwise operations on two tensors of the same size, summed.
+     */
+    protected T elementwiseChain(T a, T b) {
+        var c = a.add(b);
+        var d = a.mul(b).sub(c.div(2f));
+        var e = d.relu().add(c.mul(b)).sub(a.div(4f));
+        return e.mul(e).sum();
+    }
+
     @Test
     public void test_hessian_vector2() {
 
@@ -292,8 +818,8 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
         var x_hv = 5;
         var y_hv = 4;
 
-        Assert.assertArrayEquals(x.grad().getDataAsFloatArray(), x_grad.add(createGradValue(x_hv, false)).getDataAsFloatArray(), 0.001f);
-        Assert.assertArrayEquals(y.grad().getDataAsFloatArray(), y_grad.add(createGradValue(y_hv, false)).getDataAsFloatArray(), 0.001f);
+        assertDataEquals(x.grad(), x_grad.add(createGradValue(x_hv, false)), 0.001f);
+        assertDataEquals(y.grad(), y_grad.add(createGradValue(y_hv, false)), 0.001f);
 
         if (isNativeGradientSupported()) {
             Assert.assertEquals(isNativeGradientExpected(), x.grad().isNativeGradient());
@@ -302,6 +828,187 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
 
     }
 
+    /**
+     * The Hessian-vector products of f at the inputs with the vectors v, one for each input.
+     * As with the manual approach of test_hessian_vector, the first-order gradients and then the
+     * products are accumulated into the grad() of each input.
+     *
+     * This default runs backward keeping the graph, then backward from the sum of each gradient
+     * multiplied by its vector. Backends override it with forward-over-reverse, or a second pass
+     * which retains only what it needs, and return true from isHessianVectorProductOptimised().
+     */
+    protected List<T> hvp(Function<List<T>, T> f, List<T> inputs, List<T> v) {
+        return manualHvp(f, inputs, v);
+    }
+
+    private List<T> manualHvp(Function<List<T>, T> f, List<T> inputs, List<T> v) {
+        if (inputs.size() != v.size()) {
+            throw new IllegalArgumentException("Expected a vector for each of the " + inputs.size() + " inputs");
+        }
+        f.apply(inputs).backward(new BackwardConfig().with_keep_graph(true));
+
+        var firstOrderGradients = new ArrayList<D>();
+        T gradientDotV = null;
+        for (int i = 0; i < inputs.size(); i++) {
+            var gradient = inputs.get(i).grad();
+            firstOrderGradients.add(mul(gradient.data().get(), 1f));
+            var product = gradient.mul(v.get(i)).sum();
+            gradientDotV = gradientDotV == null ? product : gradientDotV.add(product);
+        }
+        gradientDotV.backward(new BackwardConfig());
+
+        var products = new ArrayList<T>();
+        for (int i = 0; i < inputs.size(); i++) {
+            products.add(createGradValue(add(inputs.get(i).grad().data().get(),
+                    mul(firstOrderGradients.get(i), -1f)), false));
+        }
+        return products;
+    }
+
+    protected boolean isHessianVectorProductOptimised() {
+        return false;
+    }
+
+    /**
+     * x * x + y * x + y * y, whose Hessian with respect to (x, y) is ((2, 1), (1, 2)).
+     */
+    protected T quadratic(List<T> inputs) {
+        var x = inputs.get(0);
+        var y = inputs.get(1);
+        return x.mul(x).add(y.mul(x).add(y.mul(y)));
+    }
+
+    @Test
+    public void test_hvp() {
+        var x = createGradValue(0.5f, true).name_("x");
+        var y = createGradValue(0.6f, true).name_("y");
+
+        var products = hvp(this::quadratic, List.of(x, y), List.of(createGradValue(2, false),
+                createGradValue(1, false)));
+
+        assertDataEquals(products.get(0), new float[] {5f}, 0.001f);
+        assertDataEquals(products.get(1), new float[] {4f}, 0.001f);
+        assertEquals(createData(6.6f), x.grad().data().get());
+        assertEquals(createData(5.7f), y.grad().data().get());
+    }
+
+    @Test
+    public void test_hvp_of_tensors() {
+        var x = createGradValue(new float[] {0.5f, -1f, 2f, 0f}, 2, 2);
+        var y = createGradValue(new float[] {0.6f, 3f, -2f, 1f}, 2, 2);
+        x.requires_grad_(true);
+        y.requires_grad_(true);
+        var vx = new float[] {2f, 0f, -1f, 0.5f};
+        var vy = new float[] {1f, 1f, 0f, -3f};
+
+        var products = hvp(inputs -> quadratic(inputs).sum(), List.of(x, y), List.of(createGradValue(vx, 2, 2),
+                createGradValue(vy, 2, 2)));
+
+        var expectedX = new float[4];
+        var expectedY = new float[4];
+        for (int i = 0; i < 4; i++) {
+            expectedX[i] = 2 * vx[i] + vy[i];
+            expectedY[i] = vx[i] + 2 * vy[i];
+        }
+        assertDataEquals(products.get(0), expectedX, 0.001f);
+        assertDataEquals(products.get(1), expectedY, 0.001f);
+    }
+
+    @Test
+    public void test_hvp_allocates_less_than_manual() {
+        Assume.assumeTrue(isHessianVectorProductOptimised());
+        Assume.assumeTrue(ResourceUsage.isAllocationMeasurementSupported());
+
+        var size = new Size(256, 256);
+        var v = List.of(createGradValue(2f, false, size), createGradValue(1f, false, size));
+        long hvpAllocatedBytes = 0;
+        long manualAllocatedBytes = 0;
+        for (int step = 0; step < 20; step++) {
+            var inputs = List.of(createGradValue(0.5f, true, size), createGradValue(0.6f, true, size));
+            long allocatedBytes = startAllocationMeasurement();
+            hvp(leaves -> quadratic(leaves).sum(), inputs, v);
+            allocatedBytes = ResourceUsage.allocatedBytesSince(allocatedBytes);
+            if (step >= 10) {
+                hvpAllocatedBytes += allocatedBytes;
+            }
+
+            inputs = List.of(createGradValue(0.5f, true, size), createGradValue(0.6f, true, size));
+            allocatedBytes = startAllocationMeasurement();
+            manualHvp(leaves -> quadratic(leaves).sum(), inputs, v);
+            allocatedBytes = ResourceUsage.allocatedBytesSince(allocatedBytes);
+            if (step >= 10) {
+                manualAllocatedBytes += allocatedBytes;
+            }
+        }
+
+        Assert.assertTrue("hvp allocated " + hvpAllocatedBytes + " bytes per 10 steps, the manual approach "
+                + manualAllocatedBytes + " bytes", hvpAllocatedBytes < manualAllocatedBytes);
+    }
+
+    /**
+     * Whether gradients accumulate into a preallocated buffer per leaf, which zero_grad_ clears
+     * in place rather than dropping.
+     */
+    protected boolean isGradientBufferReuseSupported() {
+        return false;
+    }
+
+    protected void zero_grad_(T tensor) {
+        // zero_grad_ is not supported by this backend
+        Assume.assumeTrue(false);
+    }
+
+    @Test
+    public void test_zero_grad_() {
+        Assume.assumeTrue(isGradientBufferReuseSupported());
+
+        var x = createGradValue(-4f, true, new Size(2, 2)).name_("x");
+        x.mul(x).sum().backward();
+
+        var grad = x.grad();
+        var gradData = grad.data().get();
+        assertEquals(createData(-8, new Size(2, 2)), gradData);
+
+        zero_grad_(x);
+
+        Assert.assertSame(grad, x.grad());
+        Assert.assertSame(gradData, x.grad().data().get());
+        assertEquals(createData(0, new Size(2, 2)), x.grad().data().get());
+    }
+
+    @Test
+    public void test_gradient_buffer_reused_across_steps() {
+        Assume.assumeTrue(isGradientBufferReuseSupported());
+
+        var x = createGradValue(-4f, true, new Size(256, 256)).name_("x");
+        x.mul(x).sum().backward();
+        var grad = x.grad();
+        var gradData = grad.data().get();
+
+        long earlyAllocatedBytes = 0;
+        long lateAllocatedBytes = 0;
+        for (int step = 1; step < 1000; step++) {
+            long allocatedBytes = startAllocationMeasurement();
+            zero_grad_(x);
+            x.mul(x).sum().backward();
+            allocatedBytes = ResourceUsage.allocatedBytesSince(allocatedBytes);
+            if (step >= 100 && step < 200) {
+                earlyAllocatedBytes += allocatedBytes;
+            } else if (step >= 900) {
+                lateAllocatedBytes += allocatedBytes;
+            }
+
+            Assert.assertSame(grad, x.grad());
+            Assert.assertSame(gradData, x.grad().data().get());
+        }
+
+        assertEquals(createData(-8, new Size(256, 256)), x.grad().data().get());
+        if (earlyAllocatedBytes >= 0) {
+            Assert.assertTrue("Allocation grew from " + earlyAllocatedBytes + " to " + lateAllocatedBytes
+                    + " bytes per 100 steps", lateAllocatedBytes <= earlyAllocatedBytes * 11 / 10 + 65536);
+        }
+    }
+
     @Test
     public void test_sum() {
 
@@ -344,14 +1051,23 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
             right.getGradNode().setDisableNativeGradient(true);
         }
 
+        long allocatedBytes = startAllocationMeasurement();
+
         var result = left.matmul(right);
+
+        assertAllocationWithinBudget("testMatMul", AllocationPhase.FORWARD, allocatedBytes);
+
         Assert.assertEquals(3, result.size().dimensions().length);
         Assert.assertEquals(2, result.size().dimensions()[0]);
         Assert.assertEquals(128, result.size().dimensions()[1]);
         Assert.assertEquals(65, result.size().dimensions()[2]);
 
+        allocatedBytes = startAllocationMeasurement();
+
         result.backward();
 
+        assertAllocationWithinBudget("testMatMul", AllocationPhase.BACKWARD, allocatedBytes);
+
         if (isNativeGradientSupported()) {
             Assert.assertEquals(isNativeGradientExpected(), left.grad(false).isNativeGradient());
             Assert.assertEquals(isNativeGradientExpected(), right.grad(false).isNativeGradient());
@@ -370,4 +1086,225 @@ public abstract class TensorTestBase<T extends Tensor<T, D>, D> extends TestBase
         Assert.assertEquals(65, right.grad().size().dimensions()[1]);
 
     }
+
+    @Test
+    public void testMatMul_against_reference() {
+        var random = new Random(1);
+        var leftData = new float[2 * 128 * 512];
+        var rightData = new float[512 * 65];
+        for (int i = 0; i < leftData.length; i++) {
+            leftData[i] = random.nextFloat() * 2 - 1;
+        }
+        for (int i = 0; i < rightData.length; i++) {
+            rightData[i] = random.nextFloat() * 2 - 1;
+        }
+
+        var left = createGradValue(leftData, 2, 128, 512);
+        var right = createGradValue(rightData, 512, 65);
+        left.requires_grad_(true);
+        right.requires_grad_(true);
+        // Compute the reference from the values as stored, which lower precisions round
+        copyDataInto(left, leftData, 0);
+        copyDataInto(right, rightData, 0);
+
+        if (!isNativeGradientExpected()) {
+            left.getGradNode().setDisableNativeGradient(true);
+            right.getGradNode().setDisableNativeGradient(true);
+        }
+
+        var result = left.matmul(right);
+        result.backward();
+
+        var expectedResult = referenceMatMul(leftData, rightData, 2, 128, 512, 65);
+        var outputGradient = new float[expectedResult.length];
+        Arrays.fill(outputGradient, 1);
+        var expectedLeftGradient = referenceLeftGradient(outputGradient, rightData, 2, 128, 512, 65);
+        var expectedRightGradient = referenceRightGradient(leftData, outputGradient, 2, 128, 512, 65);
+
+        assertDataEquals(result, expectedResult, 0.01f);
+        assertDataEquals(left.grad(), expectedLeftGradient, 0.01f);
+        assertDataEquals(right.grad(), expectedRightGradient, 0.01f);
+    }
+
+    /**
+     * output (batch, m, n) = left (batch, m, k) x right (k, n), by definition and accumulated in
+     * double, so that it checks the matmul kernels independently of how they split the work.
+     */
+    static float[] referenceMatMul(float[] left, float[] right, int batch, int m, int k, int n) {
+        var output = new float[batch * m * n];
+        for (int i = 0; i < batch * m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum += (double) left[i * k + p] * right[p * n + j];
+                }
+                output[i * n + j] = (float) sum;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * leftGradient (batch, m, k) = outputGradient (batch, m, n) x right^T (n, k), by definition.
+     */
+    static float[] referenceLeftGradient(float[] outputGradient, float[] right, int batch, int m, int k, int n) {
+        var leftGradient = new float[batch * m * k];
+        for (int i = 0; i < batch * m; i++) {
+            for (int p = 0; p < k; p++) {
+                double sum = 0;
+                for (int j = 0; j < n; j++) {
+                    sum += (double) outputGradient[i * n + j] * right[p * n + j];
+                }
+                leftGradient[i * k + p] = (float) sum;
+            }
+        }
+        return leftGradient;
+    }
+
+    /**
+     * rightGradient (k, n) = left^T (k, batch * m) x outputGradient (batch * m, n), by definition.
+     */
+    static float[] referenceRightGradient(float[] left, float[] outputGradient, int batch, int m, int k, int n) {
+        var rightGradient = new float[k * n];
+        for (int p = 0; p < k; p++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int i = 0; i < batch * m; i++) {
+                    sum += (double) left[i * k + p] * outputGradient[i * n + j];
+                }
+                rightGradient[p * n + j] = (float) sum;
+            }
+        }
+        return rightGradient;
+    }
+
+    /**
+     * Whether intermediate values and non-leaf gradients can be allocated from a FloatArena,
+     * which is reset when the pass finishes.
+     */
+    protected boolean isArenaAllocationSupported() {
+        return false;
+    }
+
+    /**
+     * @return A scope within which intermediate values and non-leaf gradients created on the
+     *         current thread are allocated from the arena, and which resets the arena when closed.
+     *         Leaf gradients are never allocated from the arena, and any other tensor from it
+     *         fails with an IllegalStateException when used after the scope is closed.
+     */
+    protected AutoCloseable arenaScope(FloatArena arena) {
+        // Arena allocation is not supported by this backend
+        Assume.assumeTrue(false);
+        return null;
+    }
+
+    /**
+     * A training step shaped like testMatMul.
+     */
+    private void matmulStep(T left, T right) {
+        left.matmul(right).relu().mul(0.5f).sum().backward();
+    }
+
+    @Test
+    public void test_arena_reused_across_steps() throws Exception {
+        Assume.assumeTrue(isArenaAllocationSupported());
+
+        var size = new Size(new Size(2, 128), new Size(512));
+        var left = createGradValue(-2, true, size);
+        var right = createGradValue(1, true, new Size(512, 65));
+        var arenaLeft = createGradValue(-2, true, size);
+        var arenaRight = createGradValue(1, true, new Size(512, 65));
+
+        long allocatedBytes = 0;
+        long arenaAllocatedBytes = 0;
+        long reservedBytes = 0;
+        try (var arena = new FloatArena()) {
+            for (int step = 0; step < 50; step++) {
+                long stepAllocatedBytes = startAllocationMeasurement();
+                matmulStep(left, right);
+                stepAllocatedBytes = ResourceUsage.allocatedBytesSince(stepAllocatedBytes);
+                if (step >= 10) {
+                    allocatedBytes += stepAllocatedBytes;
+                }
+
+                stepAllocatedBytes = startAllocationMeasurement();
+                try (var scope = arenaScope(arena)) {
+                    matmulStep(arenaLeft, arenaRight);
+                }
+                stepAllocatedBytes = ResourceUsage.allocatedBytesSince(stepAllocatedBytes);
+                if (step >= 10) {
+                    arenaAllocatedBytes += stepAllocatedBytes;
+                }
+
+                Assert.assertEquals(0, arena.getOutstandingCount());
+                if (step == 1) {
+                    reservedBytes = arena.getReservedBytes();
+                    Assert.assertTrue(reservedBytes > 0);
+                }
+            }
+            Assert.assertEquals("Arena pools grew after the first steps", reservedBytes, arena.getReservedBytes());
+        }
+
+        assertDataEquals(arenaLeft.grad(), left.grad(), 0.001f);
+        assertDataEquals(arenaRight.grad(), right.grad(), 0.001f);
+        if (allocatedBytes >= 0) {
+            Assert.assertTrue("Steps allocated " + arenaAllocatedBytes + " bytes with the arena, " + allocatedBytes
+                    + " bytes without", arenaAllocatedBytes < allocatedBytes / 2);
+        }
+    }
+
+    @Test
+    public void test_arena_peak_memory() throws Exception {
+        Assume.assumeTrue(isArenaAllocationSupported());
+
+        var left = createGradValue(-2, true, new Size(new Size(2, 128), new Size(512)));
+        var right = createGradValue(1, true, new Size(512, 65));
+        try (var arena = new FloatArena()) {
+            try (var scope = arenaScope(arena)) {
+                matmulStep(left, right);
+            }
+            long peakInUseBytes = arena.getPeakInUseBytes();
+            Assert.assertTrue(peakInUseBytes > 0);
+            Assert.assertTrue(peakInUseBytes <= arena.getReservedBytes());
+
+            for (int step = 0; step < 20; step++) {
+                try (var scope = arenaScope(arena)) {
+                    matmulStep(left, right);
+                }
+                Assert.assertEquals(0, arena.getInUseBytes());
+            }
+            Assert.assertEquals("Peak arena usage grew across steps", peakInUseBytes, arena.getPeakInUseBytes());
+        }
+    }
+
+    @Test
+    public void test_arena_use_after_release() throws Exception {
+        Assume.assumeTrue(isArenaAllocationSupported());
+
+        var left = createGradValue(-2, true, new Size(2, 4));
+        var right = createGradValue(1, true, new Size(4, 3));
+        T result;
+        try (var arena = new FloatArena()) {
+            try (var scope = arenaScope(arena)) {
+                result = left.matmul(right);
+                assertDataEquals(result, new float[] {-8, -8, -8, -8, -8, -8}, 0.0001f);
+                result.sum().backward();
+            }
+            assertDataEquals(left.grad(), new float[] {3, 3, 3, 3, 3, 3, 3, 3}, 0.0001f);
+            Assert.assertEquals("Closing the scope released the result", 0, arena.getOutstandingCount());
+
+            try {
+                copyDataInto(result, new float[6], 0);
+                Assert.fail("Expected reading a result held beyond its arena scope to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            try {
+                result.mul(2f);
+                Assert.fail("Expected an operation on a result held beyond its arena scope to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark for transposes, slices, views and reshapes of n x n tensors. With
+ * strided views the cost of each should not grow with n.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class TensorViewBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    @Param({"64", "256", "1024", "4096"})
+    public int n;
+
+    protected T tensor;
+    protected Size flattened;
+
+    protected abstract TestBase<T, D> createTestBase();
+
+    @Setup
+    public void setUp() {
+        var testBase = createTestBase();
+        testBase.setUp();
+        this.tensor = testBase.createGradValue(1f, false, new Size(n, n));
+        this.flattened = new Size(n * n);
+    }
+
+    @Benchmark
+    public T transpose() {
+        return tensor.t();
+    }
+
+    @Benchmark
+    public T row() {
+        return tensor.getTensor(0, -1);
+    }
+
+    @Benchmark
+    public T column() {
+        return tensor.getTensor(-1, 0);
+    }
+
+    @Benchmark
+    public T range() {
+        return tensor.getTensor(new int[] {0, n / 2}, new int[] {0, n / 2});
+    }
+
+    @Benchmark
+    public T view() {
+        return tensor.view(flattened);
+    }
+
+    @Benchmark
+    public T reshape() {
+        return tensor.reshape(flattened);
+    }
+}
@@ -14,6 +14,11 @@
 
 package org.ml4j.tensor;
 
+import java.lang.ref.Reference;
+import java.nio.FloatBuffer;
+
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.jvmpy.symbolictensors.Size;
 import org.mockito.MockitoAnnotations;
@@ -26,6 +31,15 @@ import org.mockito.MockitoAnnotations;
  */
 public abstract class TestBase<T extends Tensor<T, D>, D> {
 
+    /**
+     * The phases of a scenario which may declare an allocation budget.
+     */
+    public enum AllocationPhase {
+        FORWARD, BACKWARD
+    }
+
+    protected static final long UNLIMITED_ALLOCATION = Long.MAX_VALUE;
+
     protected Size size;
 
     @Before
@@ -56,4 +70,93 @@ public abstract class TestBase<T extends Tensor<T, D>, D> {
     protected T ten() {
         return createGradValue(10, false);
     }
+
+    /**
+     * The precision the backend stores data in. Assertions widen their tolerances for reduced
+     * precision backends, which should also use tolerance() in their assertEquals(D, D).
+     */
+    protected Precision getPrecision() {
+        return Precision.FLOAT32;
+    }
+
+    /**
+     * @return The tolerance for comparing against the expected value at the backend's precision,
+     *         which is at least the given delta.
+     */
+    protected float tolerance(float expected, float delta) {
+        return getPrecision().tolerance(expected, delta);
+    }
+
+    /**
+     * A read-only view of the data of a tensor, in row-major order. Backends override this to
+     * expose their storage directly; the default copies via getDataAsFloatArray().
+     */
+    protected FloatBuffer getDataAsFloatBuffer(Tensor<?, ?> tensor) {
+        return FloatBuffer.wrap(tensor.getDataAsFloatArray()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Whether getDataAsFloatBuffer() is expected to return a view rather than a copy.
+     */
+    protected boolean isDataBufferViewExpected() {
+        return false;
+    }
+
+    /**
+     * Copies the data of a tensor, in row-major order, into the destination starting at the offset.
+     */
+    protected void copyDataInto(Tensor<?, ?> tensor, float[] destination, int offset) {
+        var data = getDataAsFloatBuffer(tensor);
+        // The view may be what keeps its storage alive, so it must outlive the copy
+        data.duplicate().get(destination, offset, tensor.numel());
+        Reference.reachabilityFence(data);
+    }
+
+    protected void assertDataEquals(Tensor<?, ?> actual, Tensor<?, ?> expected, float delta) {
+        var expectedData = getDataAsFloatBuffer(expected);
+        var actualData = getDataAsFloatBuffer(actual);
+        Assert.assertEquals(expectedData.remaining(), actualData.remaining());
+        for (int i = 0; i < expectedData.remaining(); i++) {
+            float expectedValue = expectedData.get(expectedData.position() + i);
+            Assert.assertEquals(expectedValue, actualData.get(actualData.position() + i),
+                    tolerance(expectedValue, delta));
+        }
+    }
+
+    protected void assertDataEquals(Tensor<?, ?> actual, float[] expected, float delta) {
+        var actualData = getDataAsFloatBuffer(actual);
+        Assert.assertEquals(expected.length, actualData.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actualData.get(actualData.position() + i),
+                    tolerance(expected[i], delta));
+        }
+    }
+
+    /**
+     * Backends override this to fail scenarios which allocate more than the given number of
+     * bytes in a phase. Scenario names match the test method names. Scenarios with a budget are
+     * skipped on JVMs which cannot measure allocation.
+     */
+    protected long getAllocationBudget(String scenario, AllocationPhase phase) {
+        return UNLIMITED_ALLOCATION;
+    }
+
+    protected long startAllocationMeasurement() {
+        return ResourceUsage.currentThreadAllocatedBytes();
+    }
+
+    protected long measureAllocatedBytes(Runnable work) {
+        return ResourceUsage.measure(work).getAllocatedBytes();
+    }
+
+    protected void assertAllocationWithinBudget(String scenario, AllocationPhase phase, long allocatedBytesAtStart) {
+        long allocatedBytes = ResourceUsage.allocatedBytesSince(allocatedBytesAtStart);
+        long budget = getAllocationBudget(scenario, phase);
+        if (budget != UNLIMITED_ALLOCATION) {
+            // A budget which cannot be checked on this JVM skips the scenario rather than passing it
+            Assume.assumeTrue(allocatedBytes >= 0);
+            Assert.assertTrue(scenario + " allocated " + allocatedBytes + " bytes during " + phase
+                    + ", exceeding its budget of " + budget + " bytes", allocatedBytes <= budget);
+        }
+    }
 }
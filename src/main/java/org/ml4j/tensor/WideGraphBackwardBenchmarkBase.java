@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.autograd.BackwardConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A base JMH benchmark of backward through TensorTestBase.wideGraph, serially and on fork/join
+ * pools of increasing size. A thread count of 0 uses all available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class WideGraphBackwardBenchmarkBase<T extends Tensor<T, D>, D> {
+
+    @Param({"8", "64"})
+    public int branches;
+
+    @Param({"64", "256"})
+    public int n;
+
+    protected TensorTestBase<T, D> testBase;
+    protected Size size;
+
+    protected abstract TensorTestBase<T, D> createTestBase();
+
+    /**
+     * The pool for the parallel benchmark, in its own state so that the serial benchmark is not
+     * repeated for each thread count.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        @Param({"1", "2", "4", "0"})
+        public int threads;
+
+        protected ForkJoinPool pool;
+
+        @Setup
+        public void setUp() {
+            pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        testBase = createTestBase();
+        testBase.setUp();
+        size = new Size(n, n);
+    }
+
+    @Benchmark
+    public T serial() {
+        var a = testBase.createGradValue(0.5f, true, size);
+        var b = testBase.createGradValue(-0.25f, true, size);
+        testBase.wideGraph(a, b, branches).backward();
+        return a.grad();
+    }
+
+    @Benchmark
+    public T parallel(Pool pool) {
+        var a = testBase.createGradValue(0.5f, true, size);
+        var b = testBase.createGradValue(-0.25f, true, size);
+        testBase.wideGraph(a, b, branches).backward(testBase.parallelBackwardConfig(pool.pool));
+        return a.grad();
+    }
+}
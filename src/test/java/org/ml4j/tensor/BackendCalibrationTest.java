@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BackendCalibrationTest {
+
+    @Test
+    public void test_backend_for_size() {
+        var calibration = new BackendCalibration(Map.of("matmul", List.of(new BackendCalibration.Range("a", 64),
+                new BackendCalibration.Range("b", 4096), new BackendCalibration.Range("c", Long.MAX_VALUE))));
+
+        Assert.assertEquals("a", calibration.backendFor("matmul", 1));
+        Assert.assertEquals("a", calibration.backendFor("matmul", 64));
+        Assert.assertEquals("b", calibration.backendFor("matmul", 65));
+        Assert.assertEquals("c", calibration.backendFor("matmul", 1L << 40));
+    }
+
+    @Test
+    public void test_store_and_load() throws Exception {
+        var calibration = new BackendCalibration(Map.of("matmul", List.of(new BackendCalibration.Range("a", 64),
+                new BackendCalibration.Range("b", Long.MAX_VALUE))));
+        var file = Files.createTempFile("calibration", ".properties");
+        try {
+            calibration.store(file);
+
+            Assert.assertEquals(calibration.toString(), BackendCalibration.load(file).toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void test_ranges_not_ascending() {
+        for (var maxElements : new long[] {64, 32}) {
+            try {
+                new BackendCalibration(Map.of("matmul", List.of(new BackendCalibration.Range("a", 64),
+                        new BackendCalibration.Range("b", maxElements), new BackendCalibration.Range("c",
+                                Long.MAX_VALUE))));
+                Assert.fail("Expected ranges up to 64 then " + maxElements + " elements to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void test_load_ranges_not_ascending() throws Exception {
+        var file = Files.createTempFile("calibration", ".properties");
+        try {
+            Files.write(file, "matmul=a:4096,b:64,c\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                BackendCalibration.load(file);
+                Assert.fail("Expected a calibration with descending ranges to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void test_ranges_not_covering_every_size() {
+        try {
+            new BackendCalibration(Map.of("matmul", List.of(new BackendCalibration.Range("a", 64))));
+            Assert.fail("Expected bounded ranges to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks BatchedMatMul against matrix products computed by definition, on shapes which leave
+ * partial tiles, on a single thread and on several.
+ */
+public class BatchedMatMulTest {
+
+    private static final ForkJoinPool SINGLE_THREAD = new ForkJoinPool(1);
+    private static final ForkJoinPool FOUR_THREADS = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        SINGLE_THREAD.shutdown();
+        FOUR_THREADS.shutdown();
+    }
+
+    @Test
+    public void test_single_element() {
+        assertMatchesReference(1, 1, 1, 1);
+    }
+
+    @Test
+    public void test_depth_one() {
+        assertMatchesReference(1, 37, 1, 53);
+        assertMatchesReference(3, 300, 1, 900);
+    }
+
+    @Test
+    public void test_partial_tiles() {
+        assertMatchesReference(1, 17, 33, 47);
+        assertMatchesReference(3, 45, 19, 77);
+    }
+
+    @Test
+    public void test_split_rows_with_partial_tiles() {
+        // Large enough to be split across tasks, into rows which are not a multiple of the tile size
+        assertMatchesReference(1, 301, 129, 61);
+        assertMatchesReference(2, 151, 129, 61);
+    }
+
+    @Test
+    public void test_split_columns_with_partial_tiles() {
+        // Fewer rows than two tiles, so only the columns are split
+        assertMatchesReference(1, 7, 300, 517);
+    }
+
+    private void assertMatchesReference(int batch, int m, int k, int n) {
+        var random = new Random(batch * 31 + m * 17 + k * 7 + n);
+        var left = randomValues(random, batch * m * k);
+        var right = randomValues(random, k * n);
+        var outputGradient = randomValues(random, batch * m * n);
+
+        var expected = TensorTestBase.referenceMatMul(left, right, batch, m, k, n);
+        var expectedLeftGradient = TensorTestBase.referenceLeftGradient(outputGradient, right, batch, m, k, n);
+        var expectedRightGradient = TensorTestBase.referenceRightGradient(left, outputGradient, batch, m, k, n);
+
+        for (var pool : new ForkJoinPool[] {SINGLE_THREAD, FOUR_THREADS}) {
+            var batchedMatMul = new BatchedMatMul(pool);
+            String shape = "(" + batch + ", " + m + ", " + k + ") x (" + k + ", " + n + ") on "
+                    + pool.getParallelism() + " threads";
+
+            // Output arrays start non-zero, as the kernels overwrite rather than accumulate
+            var output = randomValues(random, batch * m * n);
+            batchedMatMul.matmul(left, right, output, batch, m, k, n);
+            assertEquals("matmul " + shape, expected, output, k);
+
+            var leftGradient = randomValues(random, batch * m * k);
+            batchedMatMul.leftGradient(outputGradient, right, leftGradient, batch, m, k, n);
+            assertEquals("leftGradient " + shape, expectedLeftGradient, leftGradient, n);
+
+            var rightGradient = randomValues(random, k * n);
+            batchedMatMul.rightGradient(left, outputGradient, rightGradient, batch, m, k, n);
+            assertEquals("rightGradient " + shape, expectedRightGradient, rightGradient, batch * m);
+        }
+    }
+
+    /**
+     * Allows for the rounding of a float sum of the given number of products of values of at
+     * most one in magnitude.
+     */
+    private static void assertEquals(String message, float[] expected, float[] actual, int depth) {
+        float delta = depth * depth * Math.ulp(1f);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(message + " at " + i, expected[i], actual[i], delta);
+        }
+    }
+
+    private static float[] randomValues(Random random, int length) {
+        var values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextFloat() * 2 - 1;
+        }
+        return values;
+    }
+}
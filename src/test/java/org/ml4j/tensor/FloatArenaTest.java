@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FloatArenaTest {
+
+    @Test
+    public void test_arrays_reused_after_reset() {
+        try (var arena = new FloatArena()) {
+            var first = arena.allocate(100);
+            var array = first.array();
+            arena.reset();
+
+            Assert.assertTrue(first.isReleased());
+            Assert.assertSame(array, arena.allocate(100).array());
+            Assert.assertEquals(128 * Float.BYTES, arena.getReservedBytes());
+        }
+    }
+
+    @Test
+    public void test_size_classes() {
+        try (var arena = new FloatArena()) {
+            Assert.assertEquals("Smallest size class", 16, arena.allocate(1).array().length);
+            Assert.assertEquals(16, arena.allocate(16).array().length);
+            Assert.assertEquals(32, arena.allocate(17).array().length);
+            Assert.assertEquals(1024, arena.allocate(1000).array().length);
+            Assert.assertEquals((16 + 16 + 32 + 1024) * Float.BYTES, arena.getInUseBytes());
+            arena.reset();
+
+            var buffer = arena.allocate(20);
+            Assert.assertEquals(20, buffer.length());
+            Assert.assertEquals("Reused from the same size class", 32, buffer.array().length);
+            Assert.assertEquals((16 + 16 + 32 + 1024) * Float.BYTES, arena.getReservedBytes());
+        }
+    }
+
+    @Test
+    public void test_allocate_zeroed() {
+        try (var arena = new FloatArena()) {
+            arena.allocate(8).array()[3] = 5;
+            arena.reset();
+
+            var buffer = arena.allocateZeroed(8);
+            Assert.assertArrayEquals(new float[8], buffer.toFloatArray(), 0f);
+        }
+    }
+
+    @Test
+    public void test_release_out_of_order() {
+        try (var arena = new FloatArena()) {
+            var first = arena.allocate(16);
+            var second = arena.allocate(16);
+            var third = arena.allocate(16);
+
+            first.release();
+            Assert.assertEquals(2, arena.getOutstandingCount());
+            third.release();
+            second.release();
+
+            Assert.assertEquals(0, arena.getOutstandingCount());
+            Assert.assertEquals(0, arena.getInUseBytes());
+            Assert.assertEquals(3 * 16 * Float.BYTES, arena.getPeakInUseBytes());
+            arena.allocate(16);
+            arena.reset();
+            Assert.assertEquals(3 * 16 * Float.BYTES, arena.getReservedBytes());
+        }
+    }
+
+    @Test
+    public void test_double_release() {
+        try (var arena = new FloatArena()) {
+            var buffer = arena.allocate(16);
+            var other = arena.allocate(16);
+            buffer.release();
+            try {
+                buffer.release();
+                Assert.fail("Expected a second release to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            Assert.assertEquals(1, arena.getOutstandingCount());
+            Assert.assertFalse(other.isReleased());
+        }
+    }
+
+    @Test
+    public void test_release_after_reset() {
+        try (var arena = new FloatArena()) {
+            var buffer = arena.allocate(16);
+            arena.reset();
+            try {
+                buffer.release();
+                Assert.fail("Expected releasing a buffer recycled by reset to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void test_acquire_after_release() {
+        try (var arena = new FloatArena()) {
+            var buffer = arena.allocate(16);
+            buffer.release();
+            try {
+                buffer.array();
+                Assert.fail("Expected acquiring a released buffer to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            try {
+                buffer.toFloatArray();
+                Assert.fail("Expected copying a released buffer to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void test_allocate_after_close() {
+        var arena = new FloatArena();
+        arena.allocate(16);
+        arena.close();
+
+        Assert.assertEquals(0, arena.getReservedBytes());
+        try {
+            arena.allocate(16);
+            Assert.fail("Expected a closed arena to reject allocation");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
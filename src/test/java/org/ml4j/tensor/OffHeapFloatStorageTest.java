@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapFloatStorageTest {
+
+    @Test
+    public void test_values_round_trip() {
+        var storage = OffHeapFloatStorage.of(new float[] {1, 2, 3, 4});
+        storage.set(2, -3);
+
+        Assert.assertEquals(4, storage.length());
+        Assert.assertEquals(2, storage.get(1), 0f);
+        Assert.assertArrayEquals(new float[] {1, 2, -3, 4}, storage.toFloatArray(), 0f);
+        var view = storage.asFloatBuffer(1, 2, false);
+        Assert.assertTrue(view.isReadOnly());
+        Assert.assertEquals(2, view.remaining());
+        Assert.assertEquals(-3, view.get(1), 0f);
+        storage.release();
+    }
+
+    @Test
+    public void test_release_frees_memory() {
+        var storage = new OffHeapFloatStorage(1024);
+        long allocatedBytes = OffHeapFloatStorage.getAllocatedBytes();
+
+        Assert.assertTrue(storage.release());
+
+        Assert.assertTrue(storage.isReleased());
+        Assert.assertTrue(OffHeapFloatStorage.getAllocatedBytes() <= allocatedBytes - 1024 * Float.BYTES);
+    }
+
+    @Test
+    public void test_retained_storage_is_freed_by_last_release() {
+        var storage = new OffHeapFloatStorage(16).retain();
+
+        Assert.assertEquals(2, storage.getReferenceCount());
+        Assert.assertFalse(storage.release());
+        storage.set(0, 1);
+        Assert.assertTrue(storage.release());
+    }
+
+    @Test
+    public void test_double_release() {
+        var storage = new OffHeapFloatStorage(16);
+        storage.release();
+        try {
+            storage.release();
+            Assert.fail("Expected a second release to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(0, storage.getReferenceCount());
+    }
+
+    @Test
+    public void test_access_after_release() {
+        var storage = OffHeapFloatStorage.of(new float[] {1, 2, 3, 4});
+        storage.release();
+
+        List<Runnable> accesses = List.of(() -> storage.get(0), () -> storage.set(0, 1), () -> storage.copyFrom(
+                new float[] {1}, 0), storage::toFloatArray, storage::asFloatBuffer, storage::retain);
+        for (var access : accesses) {
+            try {
+                access.run();
+                Assert.fail("Expected access after release to be rejected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void test_view_keeps_storage_alive() {
+        var storage = OffHeapFloatStorage.of(new float[] {1, 2, 3, 4});
+        var view = storage.asFloatBuffer();
+
+        Assert.assertFalse("The view holds a reference", storage.release());
+        Assert.assertFalse(storage.isReleased());
+        Assert.assertEquals(3, view.get(2), 0f);
+        Assert.assertEquals(1, storage.getReferenceCount());
+    }
+
+    @Test
+    public void test_storage_freed_once_views_are_collected() {
+        var storage = new OffHeapFloatStorage(16);
+        storage.asFloatBuffer();
+        storage.release();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!storage.isReleased() && System.currentTimeMillis() < deadline) {
+            RetentionTracker.collectGarbage();
+        }
+        Assert.assertTrue("Storage still referenced after its view was collected", storage.isReleased());
+    }
+
+    @Test
+    public void test_viewed_storage_counted_until_freed() {
+        // Let storage left by earlier tests be freed first, so the count only changes here
+        for (int i = 0; i < 3; i++) {
+            RetentionTracker.collectGarbage();
+        }
+        int length = 1 << 20;
+        var storage = new OffHeapFloatStorage(length);
+        var duplicate = storage.asFloatBuffer().duplicate();
+        long allocatedBytes = OffHeapFloatStorage.getAllocatedBytes();
+
+        storage.release();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!storage.isReleased() && System.currentTimeMillis() < deadline) {
+            RetentionTracker.collectGarbage();
+        }
+
+        // Released, but the duplicate still reads the memory, so it is still counted
+        Assert.assertTrue(storage.isReleased());
+        Assert.assertTrue(OffHeapFloatStorage.getAllocatedBytes() > allocatedBytes - (long) length * Float.BYTES);
+        Assert.assertEquals(0, duplicate.get(length - 1), 0f);
+
+        duplicate = null;
+        while (OffHeapFloatStorage.getAllocatedBytes() > allocatedBytes - (long) length * Float.BYTES
+                && System.currentTimeMillis() < deadline + 5000) {
+            RetentionTracker.collectGarbage();
+        }
+        Assert.assertTrue("Memory still counted after its buffers were collected",
+                OffHeapFloatStorage.getAllocatedBytes() <= allocatedBytes - (long) length * Float.BYTES);
+    }
+
+    @Test
+    public void test_duplicate_of_view_readable_after_release() {
+        var storage = OffHeapFloatStorage.of(new float[] {1, 2, 3, 4});
+        var duplicate = storage.asFloatBuffer().duplicate();
+        storage.release();
+
+        // The view is unreachable, so collecting it releases the last reference
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!storage.isReleased() && System.currentTimeMillis() < deadline) {
+            RetentionTracker.collectGarbage();
+        }
+        Assert.assertTrue("Storage still referenced after its view was collected", storage.isReleased());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i + 1, duplicate.get(i), 0f);
+        }
+    }
+
+    @Test
+    public void test_concurrent_retain_and_release() throws Exception {
+        var storage = new OffHeapFloatStorage(64);
+        int threads = 8;
+        runConcurrently(threads, thread -> {
+            for (int i = 0; i < 10000; i++) {
+                storage.retain();
+                storage.set(thread, i);
+                Assert.assertEquals(i, storage.get(thread), 0f);
+                Assert.assertFalse(storage.release());
+            }
+            return null;
+        });
+
+        Assert.assertEquals(1, storage.getReferenceCount());
+        Assert.assertTrue(storage.release());
+    }
+
+    @Test
+    public void test_concurrent_access_racing_release() throws Exception {
+        for (int run = 0; run < 20; run++) {
+            var storage = new OffHeapFloatStorage(1024);
+            runConcurrently(4, thread -> {
+                if (thread == 0) {
+                    Thread.yield();
+                    // A reader holding a reference may be the one to free the memory
+                    storage.release();
+                    return null;
+                }
+                for (int pass = 0; pass < 100; pass++) {
+                    // Each pass holds a reference for its accesses, as a kernel does
+                    try {
+                        storage.retain();
+                    } catch (IllegalStateException e) {
+                        // Released before the pass, after which every acquisition is rejected
+                        break;
+                    }
+                    try {
+                        for (int i = 0; i < 1024; i++) {
+                            Assert.assertEquals(0, storage.get(i), 0f);
+                        }
+                    } finally {
+                        storage.release();
+                    }
+                }
+                return null;
+            });
+
+            Assert.assertTrue(storage.isReleased());
+        }
+    }
+
+    /**
+     * Runs the task on the given number of threads, all released together, rethrowing the first
+     * failure.
+     */
+    private static void runConcurrently(int threads, ThreadTask task) throws Exception {
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                Callable<Void> callable = () -> {
+                    start.await();
+                    return task.run(thread);
+                };
+                futures.add(executor.submit(callable));
+            }
+            start.countDown();
+            for (var future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask {
+
+        Void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrecisionTest {
+
+    @Test
+    public void test_bfloat16_round_to_nearest_even() {
+        assertEncoding(Precision.BFLOAT16, 1f, 0x3f80);
+        Assert.assertEquals("Below halfway", 0x3f80, Precision.BFLOAT16.encode(bits(0x3f807fff)));
+        Assert.assertEquals("Above halfway", 0x3f81, Precision.BFLOAT16.encode(bits(0x3f808001)));
+        Assert.assertEquals("Halfway, to even below", 0x3f80, Precision.BFLOAT16.encode(bits(0x3f808000)));
+        Assert.assertEquals("Halfway, to even above", 0x3f82, Precision.BFLOAT16.encode(bits(0x3f818000)));
+        Assert.assertEquals("Negative halfway", (short) 0xbf82, Precision.BFLOAT16.encode(bits(0xbf818000)));
+    }
+
+    @Test
+    public void test_bfloat16_subnormals() {
+        assertEncoding(Precision.BFLOAT16, bits(0x00010000), 0x0001);
+        assertEncoding(Precision.BFLOAT16, -bits(0x007f0000), 0x807f);
+        Assert.assertEquals("Halfway, to even above", 0x0002, Precision.BFLOAT16.encode(bits(0x00018000)));
+        Assert.assertEquals("Halfway, to even zero", 0x0000, Precision.BFLOAT16.encode(bits(0x00008000)));
+        Assert.assertEquals("Above halfway", 0x0001, Precision.BFLOAT16.encode(bits(0x00008001)));
+        Assert.assertEquals("Rounds to zero", 0x0000, Precision.BFLOAT16.encode(Float.MIN_VALUE));
+        Assert.assertEquals("Rounds up to the smallest normal", 0x0080, Precision.BFLOAT16.encode(bits(0x007fffff)));
+    }
+
+    @Test
+    public void test_bfloat16_infinity_and_nan() {
+        assertEncoding(Precision.BFLOAT16, Float.POSITIVE_INFINITY, 0x7f80);
+        assertEncoding(Precision.BFLOAT16, Float.NEGATIVE_INFINITY, 0xff80);
+        Assert.assertEquals("Overflows to infinity", 0x7f80, Precision.BFLOAT16.encode(Float.MAX_VALUE));
+        Assert.assertTrue(Float.isNaN(Precision.BFLOAT16.decode(Precision.BFLOAT16.encode(Float.NaN))));
+        Assert.assertTrue("A NaN with only low mantissa bits stays NaN",
+                Float.isNaN(Precision.BFLOAT16.decode(Precision.BFLOAT16.encode(bits(0x7f800001)))));
+    }
+
+    @Test
+    public void test_float16_round_to_nearest_even() {
+        assertEncoding(Precision.FLOAT16, 1f, 0x3c00);
+        assertEncoding(Precision.FLOAT16, -2f, 0xc000);
+        Assert.assertEquals("Halfway, to even below", 0x3c00, Precision.FLOAT16.encode(1 + 0x1p-11f));
+        Assert.assertEquals("Halfway, to even above", 0x3c02, Precision.FLOAT16.encode(1 + 3 * 0x1p-11f));
+        Assert.assertEquals("Above halfway", 0x3c01, Precision.FLOAT16.encode(Math.nextUp(1 + 0x1p-11f)));
+        Assert.assertEquals("Carries into the exponent", 0x4000, Precision.FLOAT16.encode(Math.nextDown(2f)));
+    }
+
+    @Test
+    public void test_float16_subnormals() {
+        assertEncoding(Precision.FLOAT16, 0x1p-24f, 0x0001);
+        assertEncoding(Precision.FLOAT16, -0x1p-24f, 0x8001);
+        assertEncoding(Precision.FLOAT16, 1023 * 0x1p-24f, 0x03ff);
+        assertEncoding(Precision.FLOAT16, 0x1p-14f, 0x0400);
+        Assert.assertEquals("Halfway, to even zero", 0x0000, Precision.FLOAT16.encode(0x1p-25f));
+        Assert.assertEquals("Halfway, to even above", 0x0002, Precision.FLOAT16.encode(3 * 0x1p-25f));
+        Assert.assertEquals("Above halfway", 0x0001, Precision.FLOAT16.encode(Math.nextUp(0x1p-25f)));
+        Assert.assertEquals("Underflows to zero", 0x0000, Precision.FLOAT16.encode(0x1p-26f));
+        Assert.assertEquals("Underflows to negative zero", (short) 0x8000, Precision.FLOAT16.encode(-0x1p-26f));
+        Assert.assertEquals("Rounds up to the smallest normal", 0x0400,
+                Precision.FLOAT16.encode(Math.nextDown(0x1p-14f)));
+    }
+
+    @Test
+    public void test_float16_infinity_and_nan() {
+        assertEncoding(Precision.FLOAT16, Float.POSITIVE_INFINITY, 0x7c00);
+        assertEncoding(Precision.FLOAT16, Float.NEGATIVE_INFINITY, 0xfc00);
+        assertEncoding(Precision.FLOAT16, 65504f, 0x7bff);
+        Assert.assertEquals("Below halfway to infinity", 0x7bff, Precision.FLOAT16.encode(65519f));
+        Assert.assertEquals("Halfway, to even infinity", 0x7c00, Precision.FLOAT16.encode(65520f));
+        Assert.assertEquals("Overflows to infinity", (short) 0xfc00, Precision.FLOAT16.encode(-1e6f));
+        Assert.assertTrue(Float.isNaN(Precision.FLOAT16.decode(Precision.FLOAT16.encode(Float.NaN))));
+        Assert.assertTrue("A NaN with only low mantissa bits stays NaN",
+                Float.isNaN(Precision.FLOAT16.decode(Precision.FLOAT16.encode(bits(0x7f800001)))));
+    }
+
+    @Test
+    public void test_every_encoding_round_trips() {
+        for (var precision : new Precision[] {Precision.BFLOAT16, Precision.FLOAT16}) {
+            for (int encoding = 0; encoding <= 0xffff; encoding++) {
+                float value = precision.decode((short) encoding);
+                if (Float.isNaN(value)) {
+                    Assert.assertTrue(Float.isNaN(precision.decode(precision.encode(value))));
+                } else {
+                    Assert.assertEquals(precision + " " + Integer.toHexString(encoding), (short) encoding,
+                            precision.encode(value));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_float32_is_not_encoded() {
+        try {
+            Precision.FLOAT32.encode(1f);
+            Assert.fail("Expected FLOAT32 to have no 16-bit encoding");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static void assertEncoding(Precision precision, float value, int encoding) {
+        Assert.assertEquals((short) encoding, precision.encode(value));
+        Assert.assertEquals(value, precision.decode((short) encoding), 0f);
+    }
+
+    private static float bits(int bits) {
+        return Float.intBitsToFloat(bits);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.ml4j.tensor.FloatArena;
+
+/**
+ * The arena, if any, from which tensors created on the current thread are allocated.
+ */
+final class ArenaAllocation {
+
+    private static final ThreadLocal<FloatArena> CURRENT = new ThreadLocal<>();
+
+    private ArenaAllocation() {
+    }
+
+    /**
+     * @return The arena of the current thread, or null to allocate from the backend.
+     */
+    static FloatArena current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Allocates from the arena on the current thread, or from the backend if it is null, until
+     * the returned scope is closed.
+     */
+    static GradMode.Scope set(FloatArena arena) {
+        var previous = CURRENT.get();
+        CURRENT.set(arena);
+        return () -> CURRENT.set(previous);
+    }
+}
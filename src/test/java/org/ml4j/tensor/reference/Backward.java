@@ -0,0 +1,387 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ml4j.tensor.FloatArena;
+
+/**
+ * Back-propagates from a tensor through the graph of the operations which produced it.
+ *
+ * Each edge into a node has its own slot, numbered in the order the graph is discovered, and a
+ * node runs once every slot is filled, summing them in slot order. Gradients therefore do not
+ * depend on the order in which nodes run, and are the same when branches run on a pool.
+ *
+ * The gradients of slices are kept in the slots of the sliced tensor as they are, with their
+ * ranges, and scatter-added into its gradient together in one pass: directly into the grad of a
+ * leaf, so that the cost grows with the slices and not with the tensor they were taken from.
+ */
+final class Backward {
+
+    private final boolean retainGraph;
+    private final boolean createGraph;
+    private final ForkJoinPool pool;
+    private final Map<ReferenceTensorImpl, Integer> targets;
+    private final ReferenceTensorImpl[] targetGradients;
+
+    private Backward(boolean retainGraph, boolean createGraph, ForkJoinPool pool, ReferenceTensorImpl[] targets) {
+        this.retainGraph = retainGraph;
+        this.createGraph = createGraph;
+        this.pool = pool;
+        this.targets = new IdentityHashMap<>();
+        for (int i = 0; i < targets.length; i++) {
+            this.targets.put(targets[i], i);
+        }
+        this.targetGradients = new ReferenceTensorImpl[targets.length];
+    }
+
+    /**
+     * Accumulates the gradients of the root into the leaves of its graph.
+     *
+     * @param gradient The gradient with respect to the root, or null for ones.
+     * @param retainGraph Whether to keep the graph for another backward pass.
+     * @param createGraph Whether to record the gradients as a graph of their own, for higher
+     *        order gradients.
+     */
+    static void run(ReferenceTensorImpl root, ReferenceTensorImpl gradient, boolean retainGraph,
+            boolean createGraph) {
+        run(root, gradient, retainGraph, createGraph, null);
+    }
+
+    /**
+     * As run(root, gradient, retainGraph, createGraph), forking a task for each node beyond the
+     * first which becomes ready.
+     *
+     * @param pool The pool to run on, or null to run on the calling thread.
+     */
+    static void run(ReferenceTensorImpl root, ReferenceTensorImpl gradient, boolean retainGraph,
+            boolean createGraph, ForkJoinPool pool) {
+        new Backward(retainGraph, createGraph, pool, new ReferenceTensorImpl[0]).execute(root, gradient);
+    }
+
+    /**
+     * Computes the gradients of the root with respect to the targets, without traversing the
+     * graphs which produced the targets or accumulating into any leaf. The graph between them is
+     * released.
+     *
+     * @return The gradient for each target, or null for a target the root does not depend on.
+     */
+    static ReferenceTensorImpl[] gradients(ReferenceTensorImpl root, ReferenceTensorImpl gradient,
+            ReferenceTensorImpl[] targets, boolean createGraph) {
+        var backward = new Backward(false, createGraph, null, targets);
+        backward.execute(root, gradient);
+        return backward.targetGradients;
+    }
+
+    /**
+     * The Hessian-vector products of the root with respect to the inputs, with the vectors v.
+     *
+     * The first pass records the gradients with respect to the inputs as a graph of their own
+     * while releasing the graph of the root, so that only the values the gradients read are
+     * kept. The second pass runs from the sum of each gradient multiplied by its vector back to
+     * the inputs, without recording, and gives the products directly. As with two calls of
+     * backward, the gradients and then the products are accumulated into the grad of each input.
+     */
+    static ReferenceTensorImpl[] hessianVectorProducts(ReferenceTensorImpl root, ReferenceTensorImpl[] inputs,
+            ReferenceTensorImpl[] v) {
+        if (inputs.length != v.length) {
+            throw new IllegalArgumentException("Expected a vector for each of the " + inputs.length + " inputs");
+        }
+        var gradients = gradients(root, null, inputs, true);
+        ReferenceTensorImpl gradientDotV = null;
+        try (var mode = GradMode.set(true)) {
+            for (int i = 0; i < inputs.length; i++) {
+                if (gradients[i] != null) {
+                    var product = gradients[i].elementwise(Elementwise.MUL, v[i]).total();
+                    gradientDotV = gradientDotV == null ? product : gradientDotV.elementwise(Elementwise.ADD,
+                            product);
+                }
+            }
+        }
+        var products = gradientDotV == null || !gradientDotV.requiresGrad ? new ReferenceTensorImpl[inputs.length]
+                : gradients(gradientDotV, null, inputs, false);
+        var backward = new Backward(false, false, null, new ReferenceTensorImpl[0]);
+        try (var mode = GradMode.set(false)) {
+            for (int i = 0; i < inputs.length; i++) {
+                if (gradients[i] != null) {
+                    backward.accumulate(inputs[i], gradients[i]);
+                }
+                if (products[i] == null) {
+                    products[i] = ReferenceTensorImpl.full(inputs[i].backend, ReferenceBackend.GRADIENT, 0,
+                            inputs[i].dimensions.clone());
+                } else {
+                    backward.accumulate(inputs[i], products[i]);
+                }
+            }
+        }
+        return products;
+    }
+
+    private void execute(ReferenceTensorImpl root, ReferenceTensorImpl gradient) {
+        if (!root.requiresGrad) {
+            throw new IllegalStateException("Tensor does not require grad and does not have a grad function");
+        }
+        if (gradient != null && gradient.numel() != root.numel()) {
+            throw new IllegalArgumentException("Gradient of size " + Arrays.toString(gradient.dimensions)
+                    + " does not match " + Arrays.toString(root.dimensions));
+        }
+        var nodes = discover(root);
+        try (var mode = GradMode.set(createGraph)) {
+            var rootGradient = gradient == null ? ReferenceTensorImpl.full(root.backend, ReferenceBackend.GRADIENT, 1,
+                    root.dimensions) : gradient.reshapeTo(root.dimensions);
+            nodes.get(0).slots[0] = rootGradient;
+        }
+        var branch = new Branch(nodes.get(0), Fusion.isEnabled(), ArenaAllocation.current());
+        if (pool == null) {
+            branch.compute();
+        } else {
+            pool.invoke(branch);
+        }
+    }
+
+    /**
+     * @return The nodes reachable from the root which require grad, starting with the root.
+     */
+    private List<Node> discover(ReferenceTensorImpl root) {
+        var nodes = new ArrayList<Node>();
+        var byTensor = new IdentityHashMap<ReferenceTensorImpl, Node>();
+        var rootNode = new Node(root);
+        nodes.add(rootNode);
+        byTensor.put(root, rootNode);
+        var pending = new ArrayDeque<Node>();
+        pending.push(rootNode);
+        while (!pending.isEmpty()) {
+            var node = pending.pop();
+            var operation = node.tensor.operation;
+            if (operation == null || targets.containsKey(node.tensor)) {
+                continue;
+            }
+            int inputCount = operation.getInputCount();
+            node.inputs = new Node[inputCount];
+            node.inputSlots = new int[inputCount];
+            for (int i = 0; i < inputCount; i++) {
+                var input = operation.getInput(i);
+                if (!input.requiresGrad) {
+                    continue;
+                }
+                var inputNode = byTensor.get(input);
+                if (inputNode == null) {
+                    inputNode = new Node(input);
+                    nodes.add(inputNode);
+                    byTensor.put(input, inputNode);
+                    pending.push(inputNode);
+                }
+                node.inputs[i] = inputNode;
+                node.inputSlots[i] = inputNode.slotCount++;
+            }
+        }
+        for (var node : nodes) {
+            node.slots = new ReferenceTensorImpl[Math.max(1, node.slotCount)];
+            node.slotRanges = new int[node.slots.length][][];
+            node.pending.set(node.slotCount);
+        }
+        return nodes;
+    }
+
+    private void process(Node node, ArrayDeque<Node> ready) {
+        var slots = node.slots;
+        var slotRanges = node.slotRanges;
+        node.slots = null;
+        node.slotRanges = null;
+        var tensor = node.tensor;
+        var target = targets.get(tensor);
+        var operation = tensor.operation;
+        if (target == null && operation == null && !createGraph) {
+            accumulate(tensor, slots, slotRanges);
+            return;
+        }
+        var gradient = sum(tensor, slots, slotRanges);
+        if (target != null) {
+            targetGradients[target] = gradient;
+            return;
+        }
+        if (operation == null) {
+            accumulate(tensor, gradient);
+            return;
+        }
+        for (int i = 0; i < node.inputs.length; i++) {
+            var input = node.inputs[i];
+            if (input != null) {
+                if (operation instanceof Operation.Slice) {
+                    input.slots[node.inputSlots[i]] = gradient;
+                    input.slotRanges[node.inputSlots[i]] = ((Operation.Slice) operation).getRanges();
+                } else {
+                    input.slots[node.inputSlots[i]] = operation.gradient(i, gradient);
+                }
+                if (input.pending.decrementAndGet() == 0) {
+                    ready.push(input);
+                }
+            }
+        }
+        if (!retainGraph) {
+            operation.release();
+        }
+    }
+
+    /**
+     * @return The sum of the dense slots, plus the slices scatter-added together.
+     */
+    private ReferenceTensorImpl sum(ReferenceTensorImpl tensor, ReferenceTensorImpl[] slots,
+            int[][][] slotRanges) {
+        var slices = new ArrayList<ReferenceTensorImpl>();
+        var ranges = new ArrayList<int[][]>();
+        var gradient = sumDense(slots, slotRanges, slices, ranges);
+        if (slices.isEmpty()) {
+            return gradient;
+        }
+        if (gradient != null && !createGraph) {
+            // The slots may be views of gradients still in use, so the slices go into a copy
+            gradient = gradient.contiguousCopy(ReferenceBackend.GRADIENT);
+            Kernels.scatterAdd(gradient, slices, ranges);
+            return gradient;
+        }
+        var scattered = ReferenceTensorImpl.scatterAdd(tensor.backend, tensor.dimensions, slices, ranges);
+        return gradient == null ? scattered : gradient.elementwise(Elementwise.ADD, scattered);
+    }
+
+    /**
+     * @return The sum of the slots which are not slices, rounded once however many there are, or
+     *         null if there are none, adding the slices and their ranges to the lists.
+     */
+    private static ReferenceTensorImpl sumDense(ReferenceTensorImpl[] slots, int[][][] slotRanges,
+            List<ReferenceTensorImpl> slices, List<int[][]> ranges) {
+        var dense = new ArrayList<ReferenceTensorImpl>(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            if (slotRanges[i] != null) {
+                slices.add(slots[i]);
+                ranges.add(slotRanges[i]);
+            } else {
+                dense.add(slots[i]);
+            }
+        }
+        switch (dense.size()) {
+            case 0:
+                return null;
+            case 1:
+                return dense.get(0);
+            default:
+                return ReferenceTensorImpl.sum(dense);
+        }
+    }
+
+    /**
+     * Accumulates the slots into the gradient of a leaf in place, adding the slices directly into
+     * it. Only a leaf without a gradient yet has one of its full size allocated.
+     */
+    private void accumulate(ReferenceTensorImpl leaf, ReferenceTensorImpl[] slots, int[][][] slotRanges) {
+        var slices = new ArrayList<ReferenceTensorImpl>();
+        var ranges = new ArrayList<int[][]>();
+        var gradient = sumDense(slots, slotRanges, slices, ranges);
+        synchronized (leaf) {
+            if (gradient != null) {
+                accumulate(leaf, gradient);
+            }
+            if (!slices.isEmpty()) {
+                if (leaf.grad == null) {
+                    try (var fusion = Fusion.set(false); var arena = ArenaAllocation.set(null)) {
+                        leaf.grad = ReferenceTensorImpl.full(leaf.backend, ReferenceBackend.GRADIENT, 0,
+                                leaf.dimensions.clone());
+                    }
+                }
+                Kernels.scatterAdd(leaf.grad, slices, ranges);
+            }
+        }
+    }
+
+    /**
+     * Accumulates into the gradient of a leaf in place, so the grad() of a leaf keeps its
+     * identity and storage across backward passes.
+     */
+    private void accumulate(ReferenceTensorImpl leaf, ReferenceTensorImpl gradient) {
+        synchronized (leaf) {
+            if (leaf.grad == null) {
+                // Later passes write into the gradient, so it can be neither fused nor pooled
+                try (var fusion = Fusion.set(false); var arena = ArenaAllocation.set(null)) {
+                    leaf.grad = createGraph ? gradient.elementwise(Elementwise.ADD, 0f)
+                            : gradient.contiguousCopy(ReferenceBackend.GRADIENT);
+                }
+            } else {
+                Kernels.apply(Elementwise.ADD, leaf.grad, gradient, leaf.grad);
+            }
+        }
+    }
+
+    /**
+     * Processes nodes from a start node while they become ready one at a time, forking a branch
+     * for each further node which becomes ready when running on a pool.
+     */
+    private final class Branch extends RecursiveAction {
+
+        private final Node start;
+        private final boolean fusion;
+        private final FloatArena arena;
+
+        private Branch(Node start, boolean fusion, FloatArena arena) {
+            this.start = start;
+            this.fusion = fusion;
+            this.arena = arena;
+        }
+
+        @Override
+        protected void compute() {
+            var forked = new ArrayList<Branch>();
+            try (var mode = GradMode.set(createGraph); var fusionScope = Fusion.set(fusion);
+                    var arenaScope = ArenaAllocation.set(arena)) {
+                var ready = new ArrayDeque<Node>();
+                ready.push(start);
+                while (!ready.isEmpty()) {
+                    process(ready.pop(), ready);
+                    while (pool != null && ready.size() > 1) {
+                        var branch = new Branch(ready.removeLast(), fusion, arena);
+                        branch.fork();
+                        forked.add(branch);
+                    }
+                }
+            }
+            for (var branch : forked) {
+                branch.join();
+            }
+        }
+    }
+
+    private static final class Node {
+
+        private final ReferenceTensorImpl tensor;
+        private final AtomicInteger pending = new AtomicInteger();
+        private Node[] inputs;
+        private int[] inputSlots;
+        private int slotCount;
+        private ReferenceTensorImpl[] slots;
+        private int[][][] slotRanges;
+
+        private Node(ReferenceTensorImpl tensor) {
+            this.tensor = tensor;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvmpy.symbolictensors.Size;
+
+/**
+ * The Tensor conformance tests with each operation dispatched to heap or off-heap storage by
+ * its size.
+ */
+public class DispatchedTensorTest extends ReferenceTensorTestBase {
+
+    @Override
+    protected ReferenceBackend getBackend() {
+        return ReferenceBackend.DISPATCHED;
+    }
+
+    @Test
+    public void test_operations_dispatched_by_size() {
+        var small = createGradValue(2f, false, new Size(8, 8));
+        var large = createGradValue(2f, false, new Size(8, 9));
+        var sum = large.add(large);
+        var product = sum.matmul(large.t());
+
+        Assert.assertTrue(ReferenceTensorImpl.of(small.add(small)).storage instanceof Storage.Heap);
+        Assert.assertTrue(ReferenceTensorImpl.of(sum).storage instanceof Storage.OffHeap);
+        Assert.assertTrue("The 8x8 product of off-heap operands", ReferenceTensorImpl.of(product).storage
+                instanceof Storage.Heap);
+        var expected = new float[64];
+        Arrays.fill(expected, 4 * 2 * 9 + 2);
+        assertDataEquals(product.add(small), expected, 0.001f);
+    }
+}
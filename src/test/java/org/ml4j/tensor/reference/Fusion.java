@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.Arrays;
+
+/**
+ * Lazy evaluation of elementwise operations on the current thread. While enabled, elementwise
+ * operations on contiguous operands of the same size produce tensors with Storage.Fused, which
+ * compute their values from the operands when read. Chains are fused up to MAX_OPERATIONS per
+ * value, and a fused value read by more than one fused operation is materialized rather than
+ * computed again by each of them. Backward passes started while enabled fuse their gradients
+ * in the same way.
+ */
+final class Fusion {
+
+    static final int MAX_OPERATIONS = 32;
+
+    private static final ThreadLocal<Boolean> ENABLED = ThreadLocal.withInitial(() -> false);
+
+    private Fusion() {
+    }
+
+    static boolean isEnabled() {
+        return ENABLED.get();
+    }
+
+    /**
+     * Enables or disables fusion on the current thread until the returned scope is closed.
+     */
+    static GradMode.Scope set(boolean enabled) {
+        boolean previous = ENABLED.get();
+        ENABLED.set(enabled);
+        return () -> ENABLED.set(previous);
+    }
+
+    /**
+     * @return The fused operation on the two tensors, or null if they cannot be fused.
+     */
+    static ReferenceTensorImpl binary(Elementwise operation, ReferenceTensorImpl first, ReferenceTensorImpl second) {
+        if (!isEnabled() || !first.isContiguous() || !second.isContiguous()
+                || !Arrays.equals(first.dimensions, second.dimensions)) {
+            return null;
+        }
+        operand(first);
+        operand(second);
+        var firstStorage = first.storage;
+        var secondStorage = second.storage;
+        int firstOffset = first.offset;
+        int secondOffset = second.offset;
+        int operationCount = operationCount(first) + operationCount(second) + 1;
+        var fused = new Storage.Fused(first.backend, first.numel(), operationCount, index -> operation.apply(
+                firstStorage.get(firstOffset + index), secondStorage.get(secondOffset + index)));
+        firstStorage.addReader(fused);
+        secondStorage.addReader(fused);
+        return tensor(first, fused);
+    }
+
+    /**
+     * @return The fused function of the tensor, or null if it cannot be fused.
+     */
+    static ReferenceTensorImpl map(Kernels.FloatOperator function, ReferenceTensorImpl input) {
+        if (!isEnabled() || !input.isContiguous()) {
+            return null;
+        }
+        operand(input);
+        var storage = input.storage;
+        int offset = input.offset;
+        var fused = new Storage.Fused(input.backend, input.numel(), operationCount(input) + 1,
+                index -> function.apply(storage.get(offset + index)));
+        storage.addReader(fused);
+        return tensor(input, fused);
+    }
+
+    private static ReferenceTensorImpl tensor(ReferenceTensorImpl like, Storage.Fused fused) {
+        var dimensions = like.dimensions.clone();
+        return new ReferenceTensorImpl(like.backend, fused, 0, dimensions,
+                ReferenceTensorImpl.contiguousStrides(dimensions));
+    }
+
+    /**
+     * Materializes a fused operand which is already read by another fused operation, or whose
+     * values are already as costly to read as fusion allows.
+     */
+    private static void operand(ReferenceTensorImpl tensor) {
+        if (tensor.storage instanceof Storage.Fused) {
+            var fused = (Storage.Fused) tensor.storage;
+            if (fused.hasReaders() || fused.getOperationCount() >= MAX_OPERATIONS) {
+                fused.materialize();
+            }
+        }
+    }
+
+    private static int operationCount(ReferenceTensorImpl tensor) {
+        return tensor.storage instanceof Storage.Fused ? ((Storage.Fused) tensor.storage).getOperationCount() : 0;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+/**
+ * Whether operations on the current thread record the graph needed for backward, as with
+ * torch.no_grad().
+ */
+final class GradMode {
+
+    private static final ThreadLocal<Boolean> ENABLED = ThreadLocal.withInitial(() -> true);
+
+    private GradMode() {
+    }
+
+    static boolean isEnabled() {
+        return ENABLED.get();
+    }
+
+    /**
+     * Enables or disables recording on the current thread until the returned scope is closed.
+     */
+    static Scope set(boolean enabled) {
+        boolean previous = ENABLED.get();
+        ENABLED.set(enabled);
+        return () -> ENABLED.set(previous);
+    }
+
+    /**
+     * A scope which restores the previous state when closed.
+     */
+    interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The autograd conformance tests on heap storage.
+ */
+public class HeapAutogradTest extends ReferenceAutogradTestBase {
+
+    @Override
+    protected ReferenceBackend getBackend() {
+        return ReferenceBackend.HEAP;
+    }
+
+    @Override
+    protected long getAllocationBudget(String scenario, AllocationPhase phase) {
+        if ("test_tensor_broadcast_addition".equals(scenario)) {
+            // The (2, 128, 128) sum forward, and the gradients of both operands backward
+            long sumBytes = 2 * 128 * 128 * Float.BYTES;
+            long broadcastBytes = 128 * 128 * Float.BYTES;
+            return HeapTensorTest.BOOKKEEPING_BYTES
+                    + 3 * (phase == AllocationPhase.FORWARD ? sumBytes : sumBytes + broadcastBytes);
+        }
+        return super.getAllocationBudget(scenario, phase);
+    }
+
+    @Test
+    public void test_fused_results_unchanged_by_in_place_operations() {
+        var a = getBackend().tensor(new float[] {1f, -2f, 3f, -4f}, 2, 2);
+        var b = getBackend().tensor(new float[] {0.5f, 0.5f, 2f, 2f}, 2, 2);
+        ReferenceTensor product;
+        ReferenceTensor rectified;
+        try (var scope = Fusion.set(true)) {
+            product = a.mul(b);
+            rectified = product.add(a).relu();
+            add_(a, b);
+            mul_(b, b);
+            // Read after the writes, and again once materialized
+            assertDataEquals(product, new float[] {0.5f, -1f, 6f, -8f}, 0f);
+            assertDataEquals(rectified, new float[] {1.5f, 0f, 9f, 0f}, 0f);
+            assertDataEquals(product, new float[] {0.5f, -1f, 6f, -8f}, 0f);
+            assertDataEquals(a.mul(b), new float[] {0.375f, -0.375f, 20f, -8f}, 0f);
+        }
+    }
+
+    @Test
+    public void test_fused_values_computed_once_when_read_repeatedly() {
+        var a = ReferenceTensorImpl.of(getBackend().tensor(new float[] {1f, 2f, 3f, 4f}, 2, 2));
+        var evaluations = new AtomicInteger();
+        ReferenceTensorImpl squared;
+        try (var scope = Fusion.set(true)) {
+            squared = Fusion.map(x -> {
+                evaluations.incrementAndGet();
+                return x * x;
+            }, a);
+            var first = squared.elementwise(Elementwise.ADD, 1f);
+            var second = squared.elementwise(Elementwise.MUL, 2f);
+            assertDataEquals(first, new float[] {2f, 5f, 10f, 17f}, 0f);
+            assertDataEquals(second, new float[] {2f, 8f, 18f, 32f}, 0f);
+            assertDataEquals(squared, new float[] {1f, 4f, 9f, 16f}, 0f);
+        }
+        Assert.assertEquals(4, evaluations.get());
+    }
+}
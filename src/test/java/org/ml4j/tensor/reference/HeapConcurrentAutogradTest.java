@@ -0,0 +1,29 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.ml4j.tensor.ConcurrentAutogradTestBase;
+import org.ml4j.tensor.TensorTestBase;
+
+/**
+ * The concurrent autograd tests on heap storage.
+ */
+public class HeapConcurrentAutogradTest extends ConcurrentAutogradTestBase<ReferenceTensor, ReferenceData> {
+
+    @Override
+    protected TensorTestBase<ReferenceTensor, ReferenceData> createTestBase() {
+        return new HeapTensorTest();
+    }
+}
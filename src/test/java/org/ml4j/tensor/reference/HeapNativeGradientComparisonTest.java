@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.ml4j.tensor.AutogradTestBase;
+import org.ml4j.tensor.NativeGradientComparisonTestBase;
+import org.ml4j.tensor.TensorTestBase;
+
+/**
+ * The native gradient comparison on heap storage, which has no native gradients and so reports
+ * the baseline of each scenario.
+ */
+public class HeapNativeGradientComparisonTest extends NativeGradientComparisonTestBase<ReferenceTensor,
+        ReferenceData> {
+
+    @Override
+    protected TensorTestBase<ReferenceTensor, ReferenceData> createTestBase() {
+        return new HeapTensorTest();
+    }
+
+    @Override
+    protected AutogradTestBase<ReferenceTensor, ?, ?> createAutogradTestBase() {
+        return new HeapAutogradTest();
+    }
+}
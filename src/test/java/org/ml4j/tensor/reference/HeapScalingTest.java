@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.ml4j.tensor.ScalingTestBase;
+import org.ml4j.tensor.TensorTestBase;
+
+/**
+ * The scaling sweeps on heap storage. The reference matmul runs at a few GFLOP/s, so the sweeps
+ * stop at n = 1024 unless ml4j.scaling.maximumSize is set higher.
+ */
+public class HeapScalingTest extends ScalingTestBase<ReferenceTensor, ReferenceData> {
+
+    @Override
+    protected TensorTestBase<ReferenceTensor, ReferenceData> createTestBase() {
+        return new HeapTensorTest();
+    }
+
+    @Override
+    protected int getMaximumSize() {
+        return Integer.getInteger("ml4j.scaling.maximumSize", 1024);
+    }
+}
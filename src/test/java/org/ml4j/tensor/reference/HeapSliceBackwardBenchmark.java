@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.ml4j.tensor.SliceBackwardBenchmarkBase;
+import org.ml4j.tensor.TestBase;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Backward through slices on heap storage, whose gradients are scatter-added into the grad of
+ * the parent. Run from the test classpath after compiling with the jmh profile, which generates
+ * the benchmark harness.
+ */
+public class HeapSliceBackwardBenchmark extends SliceBackwardBenchmarkBase<ReferenceTensor, ReferenceData> {
+
+    @Override
+    protected TestBase<ReferenceTensor, ReferenceData> createTestBase() {
+        return new HeapAutogradTest();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HeapSliceBackwardBenchmark.class.getSimpleName()).build()).run();
+    }
+}
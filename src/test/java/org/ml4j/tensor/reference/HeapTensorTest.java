@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.tensor.ResourceUsage;
+
+/**
+ * The Tensor conformance tests on heap storage.
+ */
+public class HeapTensorTest extends ReferenceTensorTestBase {
+
+    /**
+     * Allowance for lambdas, graph nodes and the class initialisation a first run pays for.
+     */
+    static final long BOOKKEEPING_BYTES = 512 * 1024;
+
+    @Override
+    protected ReferenceBackend getBackend() {
+        return ReferenceBackend.HEAP;
+    }
+
+    /**
+     * Heap storage allocates every value and gradient on the heap, so budgets are a small
+     * multiple of the bytes those tensors hold.
+     */
+    @Override
+    protected long getAllocationBudget(String scenario, AllocationPhase phase) {
+        switch (scenario) {
+            case "test_example":
+                return BOOKKEEPING_BYTES;
+            case "testMatMul":
+                // The (2, 128, 65) result forward, and the gradients of both operands backward
+                long resultBytes = 2 * 128 * 65 * Float.BYTES;
+                long operandBytes = (2 * 128 * 512 + 512 * 65) * Float.BYTES;
+                return BOOKKEEPING_BYTES
+                        + 3 * (phase == AllocationPhase.FORWARD ? resultBytes : resultBytes + operandBytes);
+            default:
+                return super.getAllocationBudget(scenario, phase);
+        }
+    }
+
+    @Test
+    public void test_allocation_over_budget_fails() {
+        Assume.assumeTrue(ResourceUsage.isAllocationMeasurementSupported());
+
+        var left = createGradValue(-2, true, new Size(new Size(2, 512), new Size(512)));
+        var right = createGradValue(1, true, new Size(512, 512));
+
+        // A result eight times the size of that of testMatMul, measured against its budget
+        long allocatedBytes = startAllocationMeasurement();
+        var result = left.matmul(right);
+        try {
+            assertAllocationWithinBudget("testMatMul", AllocationPhase.FORWARD, allocatedBytes);
+        } catch (AssertionError expected) {
+            Assert.assertEquals(2 * 512 * 512, result.numel());
+            return;
+        }
+        Assert.fail("A forward pass allocating " + result.numel() * Float.BYTES
+                + " bytes passed the testMatMul budget");
+    }
+}
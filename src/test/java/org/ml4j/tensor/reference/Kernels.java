@@ -0,0 +1,381 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ml4j.tensor.BatchedMatMul;
+import org.ml4j.tensor.BroadcastReduction;
+import org.ml4j.tensor.SliceGradients;
+
+/**
+ * The loops of the reference backend, which walk strided and broadcast operands in place, and
+ * the adapters to the array kernels of the main source tree.
+ */
+final class Kernels {
+
+    private static final BatchedMatMul BATCHED_MAT_MUL = new BatchedMatMul();
+
+    private Kernels() {
+    }
+
+    /**
+     * A float to float function.
+     */
+    interface FloatOperator {
+
+        float apply(float value);
+    }
+
+    /**
+     * The value at an index.
+     */
+    interface IndexOperator {
+
+        float apply(int index);
+    }
+
+    /**
+     * Writes the operation applied to the first and second operands, broadcast to the dimensions
+     * of the output, into the output.
+     */
+    static void apply(Elementwise operation, ReferenceTensorImpl first, ReferenceTensorImpl second,
+            ReferenceTensorImpl output) {
+        output.storage.beforeWrite();
+        var dimensions = output.dimensions;
+        int rank = dimensions.length;
+        if (rank == 0) {
+            output.storage.set(output.offset, operation.apply(first.storage.get(first.offset),
+                    second.storage.get(second.offset)));
+            return;
+        }
+        int numel = output.numel();
+        if (numel == 0) {
+            return;
+        }
+        var firstStrides = broadcastStrides(first, dimensions);
+        var secondStrides = broadcastStrides(second, dimensions);
+        var outputStrides = output.strides;
+        // Each storage acquired is released, even if acquiring a later one fails
+        var firstStorage = first.storage.acquire();
+        Storage secondStorage = null;
+        Storage outputStorage = null;
+        try {
+            secondStorage = second.storage.acquire();
+            outputStorage = output.storage.acquire();
+            int firstOffset = first.offset;
+            int secondOffset = second.offset;
+            int outputOffset = output.offset;
+            int last = rank - 1;
+            int inner = dimensions[last];
+            var index = new int[rank];
+            for (int row = 0; row < numel / inner; row++) {
+                int firstIndex = firstOffset;
+                int secondIndex = secondOffset;
+                int outputIndex = outputOffset;
+                for (int i = 0; i < inner; i++) {
+                    outputStorage.set(outputIndex, operation.apply(firstStorage.get(firstIndex),
+                            secondStorage.get(secondIndex)));
+                    firstIndex += firstStrides[last];
+                    secondIndex += secondStrides[last];
+                    outputIndex += outputStrides[last];
+                }
+                for (int d = last - 1; d >= 0; d--) {
+                    index[d]++;
+                    firstOffset += firstStrides[d];
+                    secondOffset += secondStrides[d];
+                    outputOffset += outputStrides[d];
+                    if (index[d] < dimensions[d]) {
+                        break;
+                    }
+                    firstOffset -= firstStrides[d] * dimensions[d];
+                    secondOffset -= secondStrides[d] * dimensions[d];
+                    outputOffset -= outputStrides[d] * dimensions[d];
+                    index[d] = 0;
+                }
+            }
+        } finally {
+            firstStorage.release();
+            if (secondStorage != null) {
+                secondStorage.release();
+            }
+            if (outputStorage != null) {
+                outputStorage.release();
+            }
+        }
+    }
+
+    /**
+     * Writes the function of the input, broadcast to the dimensions of the output, into the output.
+     */
+    static void map(FloatOperator function, ReferenceTensorImpl input, ReferenceTensorImpl output) {
+        output.storage.beforeWrite();
+        var dimensions = output.dimensions;
+        int rank = dimensions.length;
+        if (rank == 0) {
+            output.storage.set(output.offset, function.apply(input.storage.get(input.offset)));
+            return;
+        }
+        int numel = output.numel();
+        if (numel == 0) {
+            return;
+        }
+        var inputStrides = broadcastStrides(input, dimensions);
+        var outputStrides = output.strides;
+        var inputStorage = input.storage.acquire();
+        Storage outputStorage = null;
+        try {
+            outputStorage = output.storage.acquire();
+            int inputOffset = input.offset;
+            int outputOffset = output.offset;
+            int last = rank - 1;
+            int inner = dimensions[last];
+            var index = new int[rank];
+            for (int row = 0; row < numel / inner; row++) {
+                int inputIndex = inputOffset;
+                int outputIndex = outputOffset;
+                for (int i = 0; i < inner; i++) {
+                    outputStorage.set(outputIndex, function.apply(inputStorage.get(inputIndex)));
+                    inputIndex += inputStrides[last];
+                    outputIndex += outputStrides[last];
+                }
+                for (int d = last - 1; d >= 0; d--) {
+                    index[d]++;
+                    inputOffset += inputStrides[d];
+                    outputOffset += outputStrides[d];
+                    if (index[d] < dimensions[d]) {
+                        break;
+                    }
+                    inputOffset -= inputStrides[d] * dimensions[d];
+                    outputOffset -= outputStrides[d] * dimensions[d];
+                    index[d] = 0;
+                }
+            }
+        } finally {
+            inputStorage.release();
+            if (outputStorage != null) {
+                outputStorage.release();
+            }
+        }
+    }
+
+    static void copy(ReferenceTensorImpl input, ReferenceTensorImpl output) {
+        map(value -> value, input, output);
+    }
+
+    static float sum(ReferenceTensorImpl input) {
+        float sum = 0;
+        if (input.storage instanceof Storage.Fused && input.isContiguous()) {
+            // A single pass over fused values computes each of them once without materializing them
+            for (int i = 0; i < input.numel(); i++) {
+                sum += input.storage.get(input.offset + i);
+            }
+            return sum;
+        }
+        if (input.storage.array() == null && input.isContiguous()) {
+            var storage = input.storage.acquire();
+            try {
+                for (int i = 0; i < input.numel(); i++) {
+                    sum += storage.get(input.offset + i);
+                }
+            } finally {
+                storage.release();
+            }
+            return sum;
+        }
+        var values = contiguousArray(input);
+        for (int i = 0; i < input.numel(); i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the terms, which have the dimensions of the output, accumulating in double so that the
+     * output is rounded once whatever the number of terms.
+     */
+    static void sum(List<ReferenceTensorImpl> terms, ReferenceTensorImpl output) {
+        var sums = new double[output.numel()];
+        for (var term : terms) {
+            var values = contiguousArray(term);
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += values[i];
+            }
+        }
+        var values = exactArray(output);
+        for (int i = 0; i < sums.length; i++) {
+            values[i] = (float) sums[i];
+        }
+        copyBack(values, output);
+    }
+
+    /**
+     * Sums the input over the dimensions along which the output shape is broadcast.
+     */
+    static void sumTo(ReferenceTensorImpl input, ReferenceTensorImpl output) {
+        var target = exactArray(output);
+        BroadcastReduction.reduce(contiguousArray(input), input.dimensions, target, output.dimensions, false);
+        copyBack(target, output);
+    }
+
+    /**
+     * Adds the slices into the regions of the parent they were taken from, in place and in one
+     * pass, however many of them overlap.
+     *
+     * @param ranges For each slice, and each dimension of the parent, the start (inclusive) and
+     *        end (exclusive) of the slice.
+     */
+    static void scatterAdd(ReferenceTensorImpl parent, List<ReferenceTensorImpl> slices, List<int[][]> ranges) {
+        var sliceGradients = new ArrayList<float[]>(slices.size());
+        for (var slice : slices) {
+            sliceGradients.add(contiguousArray(slice));
+        }
+        parent.storage.beforeWrite();
+        var storage = parent.storage.acquire();
+        int offset = parent.offset;
+        SliceGradients.Accumulator accumulator;
+        if (parent.isContiguous()) {
+            accumulator = (index, value) -> storage.set(offset + index, storage.get(offset + index) + value);
+        } else {
+            var dimensions = parent.dimensions;
+            var strides = parent.strides;
+            accumulator = (index, value) -> {
+                int storageIndex = offset;
+                for (int d = dimensions.length - 1; d >= 0; d--) {
+                    storageIndex += index % dimensions[d] * strides[d];
+                    index /= dimensions[d];
+                }
+                storage.set(storageIndex, storage.get(storageIndex) + value);
+            };
+        }
+        try {
+            SliceGradients.scatterAdd(accumulator, parent.dimensions, sliceGradients, ranges);
+        } finally {
+            storage.release();
+        }
+    }
+
+    /**
+     * output (batch, m, n) = left (batch, m, k) x right (k, n)
+     */
+    static void matmul(ReferenceTensorImpl left, ReferenceTensorImpl right, ReferenceTensorImpl output, int batch,
+            int m, int k, int n) {
+        var values = exactArray(output);
+        BATCHED_MAT_MUL.matmul(contiguousArray(left), contiguousArray(right), values, batch, m, k, n);
+        copyBack(values, output);
+    }
+
+    /**
+     * leftGradient (batch, m, k) = outputGradient (batch, m, n) x right^T (n, k)
+     */
+    static void matmulLeftGradient(ReferenceTensorImpl outputGradient, ReferenceTensorImpl right,
+            ReferenceTensorImpl leftGradient, int batch, int m, int k, int n) {
+        var values = exactArray(leftGradient);
+        BATCHED_MAT_MUL.leftGradient(contiguousArray(outputGradient), contiguousArray(right), values, batch, m, k,
+                n);
+        copyBack(values, leftGradient);
+    }
+
+    /**
+     * rightGradient (k, n) = left^T (k, batch * m) x outputGradient (batch * m, n)
+     */
+    static void matmulRightGradient(ReferenceTensorImpl left, ReferenceTensorImpl outputGradient,
+            ReferenceTensorImpl rightGradient, int batch, int m, int k, int n) {
+        var values = exactArray(rightGradient);
+        BATCHED_MAT_MUL.rightGradient(contiguousArray(left), contiguousArray(outputGradient), values, batch, m, k,
+                n);
+        copyBack(values, rightGradient);
+    }
+
+    /**
+     * @return The values of the tensor in row-major order, which is its storage array when that
+     *         starts with those values, so it may be longer than the tensor.
+     */
+    static float[] contiguousArray(ReferenceTensorImpl tensor) {
+        var array = tensor.storage.array();
+        if (array != null && tensor.offset == 0 && tensor.isContiguous()) {
+            return array;
+        }
+        // A temporary copy, so taken from the arena of the current thread if there is one
+        var arena = ArenaAllocation.current();
+        var storage = arena == null ? Storage.heap(tensor.numel()) : Storage.arena(arena, tensor.numel());
+        var copy = new ReferenceTensorImpl(tensor.backend, storage, 0, tensor.dimensions,
+                ReferenceTensorImpl.contiguousStrides(tensor.dimensions));
+        copy(tensor, copy);
+        return storage.array();
+    }
+
+    /**
+     * @return The storage array of a tensor created for an output, which may be longer than the
+     *         tensor, or a temporary array of its length to be copied back with copyBack().
+     */
+    private static float[] exactArray(ReferenceTensorImpl output) {
+        output.storage.beforeWrite();
+        var array = output.storage.array();
+        return array != null && output.offset == 0 && output.isContiguous() ? array : new float[output.numel()];
+    }
+
+    private static void copyBack(float[] values, ReferenceTensorImpl output) {
+        if (values != output.storage.array()) {
+            for (int i = 0; i < output.numel(); i++) {
+                output.storage.set(output.offset + i, values[i]);
+            }
+        }
+    }
+
+    /**
+     * The strides with which to walk a tensor broadcast to the given dimensions, which are 0
+     * along the dimensions it is broadcast over.
+     */
+    static int[] broadcastStrides(ReferenceTensorImpl tensor, int[] dimensions) {
+        int leading = dimensions.length - tensor.dimensions.length;
+        if (leading < 0) {
+            throw new IllegalArgumentException("Cannot broadcast " + Arrays.toString(tensor.dimensions) + " to "
+                    + Arrays.toString(dimensions));
+        }
+        var strides = new int[dimensions.length];
+        for (int d = leading; d < dimensions.length; d++) {
+            int dimension = tensor.dimensions[d - leading];
+            if (dimension == dimensions[d]) {
+                strides[d] = tensor.strides[d - leading];
+            } else if (dimension != 1) {
+                throw new IllegalArgumentException("Cannot broadcast " + Arrays.toString(tensor.dimensions) + " to "
+                        + Arrays.toString(dimensions));
+            }
+        }
+        return strides;
+    }
+
+    /**
+     * @return The dimensions the two shapes broadcast to, aligning their trailing dimensions.
+     */
+    static int[] broadcastDimensions(int[] first, int[] second) {
+        var dimensions = new int[Math.max(first.length, second.length)];
+        for (int d = 0; d < dimensions.length; d++) {
+            int firstDimension = d < dimensions.length - first.length ? 1 : first[d - dimensions.length
+                    + first.length];
+            int secondDimension = d < dimensions.length - second.length ? 1 : second[d - dimensions.length
+                    + second.length];
+            if (firstDimension != secondDimension && firstDimension != 1 && secondDimension != 1) {
+                throw new IllegalArgumentException("Shapes " + Arrays.toString(first) + " and "
+                        + Arrays.toString(second) + " cannot be broadcast together");
+            }
+            dimensions[d] = firstDimension == 1 ? secondDimension : firstDimension;
+        }
+        return dimensions;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.tensor.OffHeapFloatStorage;
+
+/**
+ * The Tensor conformance tests on off-heap storage.
+ */
+public class OffHeapTensorTest extends ReferenceTensorTestBase {
+
+    @Override
+    protected ReferenceBackend getBackend() {
+        return ReferenceBackend.OFF_HEAP;
+    }
+
+    @Test
+    public void test_close_releases_storage() {
+        var a = createGradValue(1f, false, new Size(256, 256));
+        var storage = ((Storage.OffHeap) ReferenceTensorImpl.of(a).storage).getStorage();
+        long allocatedBytes = OffHeapFloatStorage.getAllocatedBytes();
+
+        a.close();
+
+        Assert.assertTrue(storage.isReleased());
+        Assert.assertTrue(OffHeapFloatStorage.getAllocatedBytes() <= allocatedBytes - a.numel() * Float.BYTES);
+        try {
+            a.add(a);
+            Assert.fail("Expected a closed tensor to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        a.close();
+    }
+
+    @Test
+    public void test_data_buffer_readable_after_close() {
+        var a = createGradValue(new float[] {1, 2, 3, 4, 5, 6}, 2, 3);
+        var storage = ((Storage.OffHeap) ReferenceTensorImpl.of(a).storage).getStorage();
+        var data = getDataAsFloatBuffer(a);
+
+        a.close();
+
+        Assert.assertFalse("The data buffer holds a reference", storage.isReleased());
+        var destination = new float[6];
+        copyDataInto(a, destination, 0);
+        Assert.assertArrayEquals(new float[] {1, 2, 3, 4, 5, 6}, destination, 0f);
+        Assert.assertEquals(6, data.get(5), 0f);
+    }
+
+    @Test
+    public void test_kernel_holds_storage_until_released() {
+        var a = createGradValue(new float[] {1, 2, 3, 4}, 2, 2);
+        var storage = ReferenceTensorImpl.of(a).storage;
+        var acquired = storage.acquire();
+
+        a.close();
+
+        // As a kernel on another thread racing the close would still be reading
+        Assert.assertEquals(4, acquired.get(3), 0f);
+        acquired.release();
+        Assert.assertTrue(((Storage.OffHeap) storage).getStorage().isReleased());
+        try {
+            storage.acquire();
+            Assert.fail("Expected storage to be rejected once released");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
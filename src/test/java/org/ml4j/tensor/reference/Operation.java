@@ -0,0 +1,490 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The operation which produced a tensor, holding the inputs its gradients need.
+ *
+ * Gradients are computed with tensor operations, so they are recorded as a graph of their own
+ * when backward runs with keep_graph, allowing higher order gradients.
+ */
+abstract class Operation {
+
+    private volatile ReferenceTensorImpl[] inputs;
+    private final int[] versions;
+
+    Operation(ReferenceTensorImpl... inputs) {
+        this.inputs = inputs;
+        this.versions = new int[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            versions[i] = inputs[i].storage.getVersion();
+        }
+    }
+
+    int getInputCount() {
+        return checkNotReleased().length;
+    }
+
+    ReferenceTensorImpl getInput(int index) {
+        return checkNotReleased()[index];
+    }
+
+    /**
+     * @return An input whose values the gradient reads, which must not have been written by an
+     *         in-place operation since this operation was recorded.
+     */
+    ReferenceTensorImpl getSaved(int index) {
+        var input = getInput(index);
+        if (input.storage.getVersion() != versions[index]) {
+            throw new IllegalStateException("A value needed for gradient computation has been modified by an "
+                    + "in-place operation: it is at version " + input.storage.getVersion() + " but was saved at "
+                    + "version " + versions[index]);
+        }
+        return input;
+    }
+
+    boolean isReleased() {
+        return inputs == null;
+    }
+
+    /**
+     * Drops the inputs once backward no longer needs them, so that the graph can be collected.
+     */
+    void release() {
+        inputs = null;
+    }
+
+    /**
+     * Recomputes the values of the output from the current values of the inputs, writing them
+     * into its existing storage.
+     */
+    abstract void forward(ReferenceTensorImpl output);
+
+    /**
+     * @return The gradient with respect to the input, of the same dimensions as the input.
+     */
+    abstract ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient);
+
+    private ReferenceTensorImpl[] checkNotReleased() {
+        var current = inputs;
+        if (current == null) {
+            throw new IllegalStateException("Trying to backward through the graph a second time, but its values "
+                    + "have been released. Specify keep_graph when calling backward the first time.");
+        }
+        return current;
+    }
+
+    /**
+     * An elementwise operation between two tensors, whose gradients are summed over the
+     * dimensions each input was broadcast along.
+     */
+    static final class Binary extends Operation {
+
+        private final Elementwise operation;
+
+        Binary(Elementwise operation, ReferenceTensorImpl first, ReferenceTensorImpl second) {
+            super(first, second);
+            this.operation = operation;
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            Kernels.apply(operation, getInput(0), getInput(1), output);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            var dimensions = getInput(input).dimensions;
+            switch (operation) {
+                case ADD:
+                    return outputGradient.sumTo(dimensions);
+                case SUB:
+                    return input == 0 ? outputGradient.sumTo(dimensions)
+                            : outputGradient.elementwise(Elementwise.MUL, -1f).sumTo(dimensions);
+                case MUL:
+                    return outputGradient.elementwise(Elementwise.MUL, getSaved(1 - input)).sumTo(dimensions);
+                case DIV:
+                    var second = getSaved(1);
+                    if (input == 0) {
+                        return outputGradient.elementwise(Elementwise.DIV, second).sumTo(dimensions);
+                    }
+                    return outputGradient.elementwise(Elementwise.MUL, getSaved(0))
+                            .elementwise(Elementwise.DIV, second.elementwise(Elementwise.MUL, second))
+                            .elementwise(Elementwise.MUL, -1f).sumTo(dimensions);
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+    }
+
+    /**
+     * An elementwise operation between a tensor and a constant.
+     */
+    static final class Scalar extends Operation {
+
+        private final Elementwise operation;
+        private final float value;
+
+        Scalar(Elementwise operation, ReferenceTensorImpl input, float value) {
+            super(input);
+            this.operation = operation;
+            this.value = value;
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            Kernels.map(x -> operation.apply(x, value), getInput(0), output);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            switch (operation) {
+                case ADD:
+                case SUB:
+                    return outputGradient;
+                case MUL:
+                    return outputGradient.elementwise(Elementwise.MUL, value);
+                case DIV:
+                    return outputGradient.elementwise(Elementwise.DIV, value);
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+    }
+
+    static final class Relu extends Operation {
+
+        Relu(ReferenceTensorImpl input) {
+            super(input);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            Kernels.map(x -> x > 0 ? x : 0, getInput(0), output);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient.elementwise(Elementwise.MUL, getSaved(0).reluMask());
+        }
+    }
+
+    static final class Sum extends Operation {
+
+        Sum(ReferenceTensorImpl input) {
+            super(input);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            output.storage.beforeWrite();
+            output.storage.set(output.offset, Kernels.sum(getInput(0)));
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient.expand(getInput(0).dimensions);
+        }
+    }
+
+    /**
+     * A (..., m, k) tensor multiplied by a (k, n) matrix. Without keep_graph, the gradients are
+     * computed directly by the batched kernels rather than from transposes.
+     */
+    static final class MatMul extends Operation {
+
+        MatMul(ReferenceTensorImpl left, ReferenceTensorImpl right) {
+            super(left, right);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            var left = getInput(0);
+            var right = getInput(1);
+            int k = right.dimensions[0];
+            Kernels.matmul(left, right, output, 1, left.numel() / k, k, right.dimensions[1]);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            // The gradient of each input reads the values of the other
+            var left = input == 0 ? getInput(0) : getSaved(0);
+            var right = input == 0 ? getSaved(1) : getInput(1);
+            int k = right.dimensions[0];
+            int n = right.dimensions[1];
+            int rows = left.numel() / k;
+            if (GradMode.isEnabled()) {
+                if (input == 0) {
+                    return outputGradient.matrixProduct(right.transpose());
+                }
+                return left.reshapeTo(new int[] {rows, k}).transpose()
+                        .matrixProduct(outputGradient.reshapeTo(new int[] {rows, n}));
+            }
+            var gradient = ReferenceTensorImpl.allocate(left.backend, ReferenceBackend.MATMUL,
+                    input == 0 ? left.dimensions : right.dimensions);
+            if (input == 0) {
+                Kernels.matmulLeftGradient(outputGradient, right, gradient, 1, rows, k, n);
+            } else {
+                Kernels.matmulRightGradient(left, outputGradient, gradient, 1, rows, k, n);
+            }
+            return gradient;
+        }
+    }
+
+    /**
+     * A tensor broadcast to larger dimensions.
+     */
+    static final class Expand extends Operation {
+
+        Expand(ReferenceTensorImpl input) {
+            super(input);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            Kernels.copy(getInput(0), output);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient.sumTo(getInput(0).dimensions);
+        }
+    }
+
+    /**
+     * A tensor summed over the dimensions along which smaller dimensions would be broadcast.
+     */
+    static final class SumTo extends Operation {
+
+        SumTo(ReferenceTensorImpl input) {
+            super(input);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            Kernels.sumTo(getInput(0), output);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient.expand(getInput(0).dimensions);
+        }
+    }
+
+    static final class Transpose extends Operation {
+
+        Transpose(ReferenceTensorImpl input) {
+            super(input);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            // A view of the input
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient.transpose();
+        }
+    }
+
+    static final class Reshape extends Operation {
+
+        Reshape(ReferenceTensorImpl input) {
+            super(input);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            var input = getInput(0);
+            if (output.storage != input.storage) {
+                // A copy of a non-contiguous input
+                Kernels.copy(input, new ReferenceTensorImpl(output.backend, output.storage, output.offset,
+                        input.dimensions, ReferenceTensorImpl.contiguousStrides(input.dimensions)));
+            }
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient.reshapeTo(getInput(0).dimensions);
+        }
+    }
+
+    /**
+     * A view of part of a tensor, whose gradient is scatter-added into the gradient of the tensor.
+     * Backward adds the gradients of all the slices of a tensor into its gradient at once, and
+     * for a leaf directly into its grad, so gradient() is only used on its own for a target.
+     */
+    static final class Slice extends Operation {
+
+        private final int[][] ranges;
+
+        Slice(ReferenceTensorImpl input, int[][] ranges) {
+            super(input);
+            this.ranges = ranges;
+        }
+
+        /**
+         * @return For each dimension of the input, the start (inclusive) and end (exclusive) of
+         *         the slice.
+         */
+        int[][] getRanges() {
+            return ranges;
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            // A view of the input
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return ReferenceTensorImpl.scatterAdd(outputGradient.backend, getInput(0).dimensions,
+                    List.of(outputGradient), List.<int[][]>of(ranges));
+        }
+    }
+
+    /**
+     * Slices added into a tensor of zeros, whose gradient with respect to each slice is its part
+     * of the output gradient.
+     */
+    static final class ScatterAdd extends Operation {
+
+        private final int[][][] ranges;
+
+        ScatterAdd(ReferenceTensorImpl[] slices, int[][][] ranges) {
+            super(slices);
+            this.ranges = ranges;
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            Kernels.map(x -> 0, output, output);
+            var slices = new ArrayList<ReferenceTensorImpl>();
+            for (int i = 0; i < getInputCount(); i++) {
+                slices.add(getInput(i));
+            }
+            Kernels.scatterAdd(output, slices, Arrays.asList(ranges));
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            var kept = new boolean[ranges[input].length];
+            Arrays.fill(kept, true);
+            return outputGradient.slice(ranges[input], kept).reshapeTo(getInput(input).dimensions);
+        }
+    }
+
+    /**
+     * The sum of tensors of the same dimensions, whose gradient with respect to each of them is
+     * the output gradient.
+     */
+    static final class AddAll extends Operation {
+
+        AddAll(ReferenceTensorImpl[] terms) {
+            super(terms);
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            var terms = new ArrayList<ReferenceTensorImpl>();
+            for (int i = 0; i < getInputCount(); i++) {
+                terms.add(getInput(i));
+            }
+            Kernels.sum(terms, output);
+        }
+
+        @Override
+        ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            return outputGradient;
+        }
+    }
+
+    /**
+     * A segment of the graph whose intermediate values were discarded, recomputed from its input
+     * when backward reaches it. Its inputs are the segment input followed by the tensors
+     * requiring grad which the segment used from outside it.
+     */
+    static final class Checkpoint extends Operation {
+
+        /**
+         * The tensors recorded on the current thread while a segment runs, or null.
+         */
+        static final ThreadLocal<Set<ReferenceTensorImpl>> RECORDED = new ThreadLocal<>();
+
+        private final Function<ReferenceTensor, ReferenceTensor> segment;
+        private ReferenceTensorImpl outputGradient;
+        private ReferenceTensorImpl[] gradients;
+
+        Checkpoint(Function<ReferenceTensor, ReferenceTensor> segment, ReferenceTensorImpl... inputs) {
+            super(inputs);
+            this.segment = segment;
+        }
+
+        @Override
+        void forward(ReferenceTensorImpl output) {
+            ReferenceTensorImpl values;
+            try (var mode = GradMode.set(false)) {
+                values = ReferenceTensorImpl.of(segment.apply(getInput(0)));
+            }
+            Kernels.copy(values, output);
+        }
+
+        /**
+         * Reruns the segment with the graph recorded, then back-propagates through it to the
+         * inputs, once for all inputs of each output gradient.
+         */
+        @Override
+        synchronized ReferenceTensorImpl gradient(int input, ReferenceTensorImpl outputGradient) {
+            if (outputGradient != this.outputGradient) {
+                int inputCount = getInputCount();
+                var targets = new ReferenceTensorImpl[inputCount];
+                var segmentInput = getSaved(0);
+                targets[0] = new ReferenceTensorImpl(segmentInput.backend, segmentInput.storage, segmentInput.offset,
+                        segmentInput.dimensions, segmentInput.strides);
+                targets[0].requiresGrad = true;
+                for (int i = 1; i < inputCount; i++) {
+                    targets[i] = getSaved(i);
+                }
+                boolean createGraph = GradMode.isEnabled();
+                ReferenceTensorImpl output;
+                try (var mode = GradMode.set(true)) {
+                    output = ReferenceTensorImpl.of(segment.apply(targets[0]));
+                }
+                this.gradients = Backward.gradients(output, outputGradient, targets, createGraph);
+                this.outputGradient = outputGradient;
+            }
+            var gradient = gradients[input];
+            if (gradient == null) {
+                var dimensions = getInput(input).dimensions;
+                return ReferenceTensorImpl.full(getInput(input).backend, ReferenceBackend.GRADIENT, 0, dimensions);
+            }
+            return gradient;
+        }
+
+        @Override
+        synchronized void release() {
+            super.release();
+            outputGradient = null;
+            gradients = null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.tensor.AutogradTestBase;
+import org.ml4j.tensor.Precision;
+import org.ml4j.tensor.Tensor;
+
+/**
+ * Runs the autograd conformance tests against a reference backend, whose tensors are their
+ * own wrapped tensors.
+ */
+public abstract class ReferenceAutogradTestBase extends AutogradTestBase<ReferenceTensor, ReferenceTensor,
+        ReferenceData> {
+
+    private final Random random = new Random(1);
+
+    protected abstract ReferenceBackend getBackend();
+
+    @Override
+    protected ReferenceTensor createGradValue(float value, boolean requires_grad) {
+        return getBackend().full(value, requires_grad);
+    }
+
+    @Override
+    protected ReferenceTensor createGradValue(ReferenceData value, boolean requires_grad) {
+        return getBackend().tensor(value, requires_grad);
+    }
+
+    @Override
+    protected ReferenceTensor createGradValue(float value, boolean requires_grad, Size size) {
+        return getBackend().full(value, requires_grad, size.dimensions());
+    }
+
+    @Override
+    protected ReferenceTensor createRandomValue(boolean requires_grad, int... dims) {
+        return getBackend().random(random, requires_grad, dims);
+    }
+
+    @Override
+    protected ReferenceTensor createOnesValue(boolean requires_grad, int... dims) {
+        return getBackend().full(1, requires_grad, dims);
+    }
+
+    @Override
+    protected ReferenceTensor createWrappedTensor(ReferenceTensor tensor) {
+        return tensor;
+    }
+
+    @Override
+    protected void assertEquals(ReferenceData value1, ReferenceData value2) {
+        var expected = ReferenceDataImpl.of(value1).getDataAsFloatArray();
+        var actual = ReferenceDataImpl.of(value2).getDataAsFloatArray();
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual[i], tolerance(expected[i], 0.01f));
+        }
+    }
+
+    @Override
+    protected ReferenceData add(ReferenceData value1, ReferenceData value2) {
+        return value1.add(value2);
+    }
+
+    @Override
+    protected ReferenceData mul(ReferenceData value1, float value2) {
+        return value1.mul(value2);
+    }
+
+    @Override
+    protected ReferenceData createData(float value) {
+        return getBackend().data(value);
+    }
+
+    @Override
+    protected ReferenceData createData(float value, Size size) {
+        return getBackend().data(value, size.dimensions());
+    }
+
+    /**
+     * The reference backend computes every gradient with its own operations.
+     */
+    @Override
+    protected boolean isNativeGradientSupported() {
+        return false;
+    }
+
+    @Override
+    protected boolean isNativeGradientExpected() {
+        return false;
+    }
+
+    @Override
+    protected boolean isGraphReleasedAfterBackward() {
+        return true;
+    }
+
+    @Override
+    protected boolean isInPlaceOperationSupported() {
+        return true;
+    }
+
+    @Override
+    protected ReferenceTensor add_(ReferenceTensor tensor, ReferenceTensor other) {
+        return ReferenceTensorImpl.of(tensor).inPlace(Elementwise.ADD, ReferenceTensorImpl.of(other));
+    }
+
+    @Override
+    protected ReferenceTensor mul_(ReferenceTensor tensor, ReferenceTensor other) {
+        return ReferenceTensorImpl.of(tensor).inPlace(Elementwise.MUL, ReferenceTensorImpl.of(other));
+    }
+
+    @Override
+    protected ReferenceTensor sub_(ReferenceTensor tensor, ReferenceTensor other) {
+        return ReferenceTensorImpl.of(tensor).inPlace(Elementwise.SUB, ReferenceTensorImpl.of(other));
+    }
+
+    @Override
+    protected ReferenceTensor div_(ReferenceTensor tensor, ReferenceTensor other) {
+        return ReferenceTensorImpl.of(tensor).inPlace(Elementwise.DIV, ReferenceTensorImpl.of(other));
+    }
+
+    @Override
+    protected ReferenceTensor relu_(ReferenceTensor tensor) {
+        return ReferenceTensorImpl.of(tensor).rectifyInPlace();
+    }
+
+    @Override
+    protected boolean isSliceBackwardSupported() {
+        return true;
+    }
+
+    @Override
+    protected boolean isScalarFastPathSupported() {
+        return true;
+    }
+
+    @Override
+    protected boolean isScalarFastPath(ReferenceTensor tensor) {
+        return ReferenceTensorImpl.of(tensor).storage instanceof Storage.Scalar;
+    }
+
+    @Override
+    protected boolean isGradientCheckpointingSupported() {
+        return true;
+    }
+
+    @Override
+    protected ReferenceTensor checkpoint(Function<ReferenceTensor, ReferenceTensor> segment, ReferenceTensor input) {
+        return ReferenceTensorImpl.of(input).checkpoint(segment);
+    }
+
+    @Override
+    protected Precision getPrecision() {
+        return getBackend().getPrecision();
+    }
+
+    @Override
+    protected FloatBuffer getDataAsFloatBuffer(Tensor<?, ?> tensor) {
+        if (tensor instanceof ReferenceTensorImpl) {
+            return ((ReferenceTensorImpl) tensor).getDataAsFloatBuffer();
+        }
+        return super.getDataAsFloatBuffer(tensor);
+    }
+
+    @Override
+    protected boolean isDataBufferViewExpected() {
+        return getPrecision() == Precision.FLOAT32;
+    }
+}
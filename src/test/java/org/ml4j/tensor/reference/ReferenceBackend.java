@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.ml4j.tensor.BackendCalibration;
+import org.ml4j.tensor.Precision;
+
+/**
+ * Allocates the storage of reference tensors, and creates them for the conformance tests.
+ *
+ * The reference backend implements the Tensor contract in plain Java, so that every
+ * conformance test, including those of optional capabilities, runs against an in-repo backend.
+ */
+abstract class ReferenceBackend {
+
+    static final String ELEMENTWISE = "elementwise";
+    static final String MATMUL = "matmul";
+    static final String REDUCTION = "reduction";
+    static final String GRADIENT = "gradient";
+
+    static final ReferenceBackend HEAP = new ReferenceBackend("heap") {
+
+        @Override
+        Storage allocate(String operation, int length) {
+            return Storage.heap(length);
+        }
+    };
+
+    static final ReferenceBackend OFF_HEAP = new ReferenceBackend("offheap") {
+
+        @Override
+        Storage allocate(String operation, int length) {
+            return Storage.offHeap(length);
+        }
+    };
+
+    static final ReferenceBackend BFLOAT16 = half(Precision.BFLOAT16);
+
+    static final ReferenceBackend FLOAT16 = half(Precision.FLOAT16);
+
+    /**
+     * Allocates up to 64 elements on the heap and larger tensors off-heap, for every operation.
+     */
+    static final ReferenceBackend DISPATCHED = dispatching(new BackendCalibration(Map.of(ELEMENTWISE,
+            sizeRanges(), MATMUL, sizeRanges(), REDUCTION, sizeRanges(), GRADIENT, sizeRanges())), HEAP, OFF_HEAP);
+
+    private final String name;
+
+    ReferenceBackend(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return A backend which allocates the storage of each operation from the backend the
+     *         calibration chooses for its kind and number of elements.
+     */
+    static ReferenceBackend dispatching(BackendCalibration calibration, ReferenceBackend... backends) {
+        var byName = new LinkedHashMap<String, ReferenceBackend>();
+        for (var backend : backends) {
+            byName.put(backend.getName(), backend);
+        }
+        for (var operation : calibration.getOperations()) {
+            for (var range : calibration.getRanges(operation)) {
+                if (!byName.containsKey(range.getBackend())) {
+                    throw new IllegalArgumentException("Calibrated backend " + range.getBackend() + " is not one of "
+                            + byName.keySet());
+                }
+            }
+        }
+        return new ReferenceBackend("dispatched") {
+
+            @Override
+            Storage allocate(String operation, int length) {
+                return byName.get(calibration.backendFor(operation, length)).allocate(operation, length);
+            }
+        };
+    }
+
+    /**
+     * @return A backend storing every tensor in 16-bit values of the precision.
+     */
+    private static ReferenceBackend half(Precision precision) {
+        return new ReferenceBackend(precision.name().toLowerCase(Locale.ROOT)) {
+
+            @Override
+            Storage allocate(String operation, int length) {
+                return Storage.half(precision, length);
+            }
+
+            @Override
+            Precision getPrecision() {
+                return precision;
+            }
+        };
+    }
+
+    private static List<BackendCalibration.Range> sizeRanges() {
+        return List.of(new BackendCalibration.Range("heap", 64), new BackendCalibration.Range("offheap",
+                Long.MAX_VALUE));
+    }
+
+    /**
+     * @param operation The kind of operation the storage is allocated for.
+     * @return Zero-filled storage of the given length.
+     */
+    abstract Storage allocate(String operation, int length);
+
+    Precision getPrecision() {
+        return Precision.FLOAT32;
+    }
+
+    ReferenceTensor tensor(float[] values, int... dimensions) {
+        var tensor = ReferenceTensorImpl.allocate(this, ELEMENTWISE, dimensions.clone());
+        if (values.length != tensor.numel()) {
+            throw new IllegalArgumentException("Expected " + tensor.numel() + " values but found " + values.length);
+        }
+        for (int i = 0; i < values.length; i++) {
+            tensor.storage.set(i, values[i]);
+        }
+        return tensor;
+    }
+
+    ReferenceTensor tensor(ReferenceData data, boolean requiresGrad) {
+        var tensor = ReferenceDataImpl.of(data).values().contiguousCopy(ELEMENTWISE);
+        tensor.requiresGrad = requiresGrad;
+        return tensor;
+    }
+
+    ReferenceTensor full(float value, boolean requiresGrad, int... dimensions) {
+        var tensor = ReferenceTensorImpl.full(this, ELEMENTWISE, value, dimensions.clone());
+        tensor.requiresGrad = requiresGrad;
+        return tensor;
+    }
+
+    ReferenceTensor random(Random random, boolean requiresGrad, int... dimensions) {
+        var tensor = ReferenceTensorImpl.allocate(this, ELEMENTWISE, dimensions.clone());
+        for (int i = 0; i < tensor.numel(); i++) {
+            tensor.storage.set(i, random.nextFloat() * 2 - 1);
+        }
+        tensor.requiresGrad = requiresGrad;
+        return tensor;
+    }
+
+    ReferenceData data(float value, int... dimensions) {
+        return ReferenceTensorImpl.full(this, ELEMENTWISE, value, dimensions.clone()).referenceData();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
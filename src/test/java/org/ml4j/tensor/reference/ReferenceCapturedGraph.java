@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.ml4j.tensor.CapturedGraph;
+
+/**
+ * A graph of reference tensors, replayed by recomputing the values of its tensors in their
+ * existing storage and running backward again over the retained graph.
+ */
+final class ReferenceCapturedGraph implements CapturedGraph<ReferenceTensor> {
+
+    private final List<ReferenceTensor> leaves;
+    private final ReferenceTensorImpl output;
+    private final List<ReferenceTensorImpl> computed;
+
+    private ReferenceCapturedGraph(List<ReferenceTensor> leaves, ReferenceTensorImpl output) {
+        this.leaves = List.copyOf(leaves);
+        this.output = output;
+        this.computed = computationOrder(output);
+    }
+
+    static ReferenceCapturedGraph capture(Function<List<ReferenceTensor>, ReferenceTensor> forward,
+            List<ReferenceTensor> leaves) {
+        var graph = new ReferenceCapturedGraph(leaves, ReferenceTensorImpl.of(forward.apply(leaves)));
+        graph.backward();
+        return graph;
+    }
+
+    @Override
+    public List<ReferenceTensor> getLeaves() {
+        return leaves;
+    }
+
+    @Override
+    public ReferenceTensor replay(List<ReferenceTensor> leafValues) {
+        if (leafValues.size() != leaves.size()) {
+            throw new IllegalArgumentException("Expected " + leaves.size() + " leaf values but found "
+                    + leafValues.size());
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            var dimensions = ReferenceTensorImpl.of(leaves.get(i)).dimensions;
+            var valueDimensions = ReferenceTensorImpl.of(leafValues.get(i)).dimensions;
+            if (!Arrays.equals(dimensions, valueDimensions)) {
+                throw new IllegalArgumentException("Leaf " + i + " was captured with size "
+                        + Arrays.toString(dimensions) + " but replayed with " + Arrays.toString(valueDimensions));
+            }
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            Kernels.copy(ReferenceTensorImpl.of(leafValues.get(i)), ReferenceTensorImpl.of(leaves.get(i)));
+        }
+        for (var tensor : computed) {
+            tensor.operation.forward(tensor);
+        }
+        for (var leaf : leaves) {
+            ReferenceTensorImpl.of(leaf).zeroGrad();
+        }
+        backward();
+        return output;
+    }
+
+    private void backward() {
+        Backward.run(output, null, true, false);
+    }
+
+    /**
+     * @return The tensors produced by operations in the graph of the output, each after its
+     *         inputs.
+     */
+    private static List<ReferenceTensorImpl> computationOrder(ReferenceTensorImpl output) {
+        var order = new ArrayList<ReferenceTensorImpl>();
+        Set<ReferenceTensorImpl> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<ReferenceTensorImpl> ordered = Collections.newSetFromMap(new IdentityHashMap<>());
+        var pending = new ArrayDeque<ReferenceTensorImpl>();
+        pending.push(output);
+        while (!pending.isEmpty()) {
+            var tensor = pending.peek();
+            if (tensor.operation == null || ordered.contains(tensor)) {
+                pending.pop();
+            } else if (expanded.add(tensor)) {
+                for (int i = 0; i < tensor.operation.getInputCount(); i++) {
+                    pending.push(tensor.operation.getInput(i));
+                }
+            } else {
+                pending.pop();
+                ordered.add(tensor);
+                order.add(tensor);
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import org.jvmpy.symbolictensors.Size;
+
+/**
+ * The data of a reference tensor: a view of its storage which never records a graph.
+ */
+final class ReferenceDataImpl implements ReferenceData {
+
+    private final ReferenceTensorImpl values;
+
+    ReferenceDataImpl(ReferenceTensorImpl values) {
+        this.values = values;
+    }
+
+    /**
+     * @return The reference data, which all ReferenceData is.
+     */
+    static ReferenceDataImpl of(ReferenceData data) {
+        return (ReferenceDataImpl) data;
+    }
+
+    ReferenceTensorImpl values() {
+        return values;
+    }
+
+    @Override
+    public ReferenceData add(ReferenceData other) {
+        return apply(Elementwise.ADD, of(other));
+    }
+
+    @Override
+    public ReferenceData add(float other) {
+        return apply(Elementwise.ADD, other);
+    }
+
+    @Override
+    public ReferenceData sub(ReferenceData other) {
+        return apply(Elementwise.SUB, of(other));
+    }
+
+    @Override
+    public ReferenceData sub(float other) {
+        return apply(Elementwise.SUB, other);
+    }
+
+    @Override
+    public ReferenceData mul(ReferenceData other) {
+        return apply(Elementwise.MUL, of(other));
+    }
+
+    @Override
+    public ReferenceData mul(float other) {
+        return apply(Elementwise.MUL, other);
+    }
+
+    @Override
+    public ReferenceData div(ReferenceData other) {
+        return apply(Elementwise.DIV, of(other));
+    }
+
+    @Override
+    public ReferenceData div(float other) {
+        return apply(Elementwise.DIV, other);
+    }
+
+    @Override
+    public ReferenceData relu() {
+        return values.rectify().referenceData();
+    }
+
+    @Override
+    public ReferenceData matmul(ReferenceData other) {
+        return values.matrixProduct(of(other).values).referenceData();
+    }
+
+    @Override
+    public ReferenceData sum() {
+        return values.total().referenceData();
+    }
+
+    @Override
+    public ReferenceData t() {
+        return values.transpose().referenceData();
+    }
+
+    @Override
+    public ReferenceData reshape(Size size) {
+        return values.reshapeTo(size.dimensions()).referenceData();
+    }
+
+    @Override
+    public ReferenceData view(Size size) {
+        return ReferenceTensorImpl.of(values.view(size)).referenceData();
+    }
+
+    @Override
+    public ReferenceData getTensor(int... indices) {
+        return ReferenceTensorImpl.of(values.getTensor(indices)).referenceData();
+    }
+
+    @Override
+    public ReferenceData getTensor(int[] firstRange, int[] secondRange) {
+        return ReferenceTensorImpl.of(values.getTensor(firstRange, secondRange)).referenceData();
+    }
+
+    @Override
+    public float get(int... indices) {
+        return values.get(indices);
+    }
+
+    @Override
+    public int numel() {
+        return values.numel();
+    }
+
+    @Override
+    public Size size() {
+        return values.size();
+    }
+
+    @Override
+    public float[] getDataAsFloatArray() {
+        return values.getDataAsFloatArray();
+    }
+
+    private ReferenceDataImpl apply(Elementwise operation, ReferenceDataImpl other) {
+        return values.elementwise(operation, other.values).referenceData();
+    }
+
+    private ReferenceDataImpl apply(Elementwise operation, float other) {
+        return values.elementwise(operation, other).referenceData();
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceData " + values.size();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ml4j.autograd.node.GradNode;
+
+/**
+ * The node of a reference tensor in its gradient graph. The reference backend computes every
+ * gradient with its own operations, so disabling the native gradient is recorded but changes
+ * nothing.
+ */
+final class ReferenceGradNode implements GradNode<ReferenceTensor> {
+
+    private final ReferenceTensorImpl tensor;
+    private volatile boolean disableNativeGradient;
+
+    ReferenceGradNode(ReferenceTensorImpl tensor) {
+        this.tensor = tensor;
+    }
+
+    @Override
+    public void setDisableNativeGradient(boolean disableNativeGradient) {
+        this.disableNativeGradient = disableNativeGradient;
+    }
+
+    @Override
+    public boolean isDisableNativeGradient() {
+        return disableNativeGradient;
+    }
+
+    /**
+     * @return The nodes of the inputs of the operation which produced the tensor, which are
+     *         empty for a leaf or once the graph has been released.
+     */
+    @Override
+    public List<GradNode<ReferenceTensor>> next() {
+        var operation = tensor.operation;
+        var next = new ArrayList<GradNode<ReferenceTensor>>();
+        if (operation != null && !operation.isReleased()) {
+            for (int i = 0; i < operation.getInputCount(); i++) {
+                var input = operation.getInput(i);
+                if (input.requiresGrad) {
+                    next.add(input.getGradNode());
+                }
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceGradNode [" + tensor + "]";
+    }
+}
@@ -0,0 +1,797 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.autograd.BackwardConfig;
+import org.ml4j.nn.components.DirectedComponentsContext;
+import org.ml4j.tensor.djl.DJLTensor;
+import org.ml4j.tensor.dl4j.DL4JTensor;
+import org.ml4j.tensor.ml4j.ML4JTensor;
+
+/**
+ * A strided view of a storage, with the operation which produced it when it is part of a
+ * graph.
+ */
+final class ReferenceTensorImpl implements ReferenceTensor {
+
+    final ReferenceBackend backend;
+    Storage storage;
+    int offset;
+    int[] dimensions;
+    int[] strides;
+    boolean requiresGrad;
+    Operation operation;
+    ReferenceTensorImpl grad;
+    private String name;
+    private ReferenceDataImpl data;
+    private ReferenceGradNode gradNode;
+
+    ReferenceTensorImpl(ReferenceBackend backend, Storage storage, int offset, int[] dimensions, int[] strides) {
+        this.backend = backend;
+        this.storage = storage;
+        this.offset = offset;
+        this.dimensions = dimensions;
+        this.strides = strides;
+    }
+
+    /**
+     * Scalars are allocated with Storage.Scalar whatever the backend, without an array, and
+     * other tensors from the arena of the current thread if there is one.
+     */
+    static ReferenceTensorImpl allocate(ReferenceBackend backend, String operation, int[] dimensions) {
+        var arena = ArenaAllocation.current();
+        Storage storage;
+        if (dimensions.length == 0) {
+            storage = new Storage.Scalar();
+        } else if (arena != null) {
+            storage = Storage.arena(arena, numel(dimensions));
+        } else {
+            storage = backend.allocate(operation, numel(dimensions));
+        }
+        return new ReferenceTensorImpl(backend, storage, 0, dimensions, contiguousStrides(dimensions));
+    }
+
+    static ReferenceTensorImpl full(ReferenceBackend backend, String operation, float value, int[] dimensions) {
+        var tensor = allocate(backend, operation, dimensions);
+        if (value != 0) {
+            for (int i = 0; i < tensor.numel(); i++) {
+                tensor.storage.set(i, value);
+            }
+        }
+        return tensor;
+    }
+
+    /**
+     * @return The reference tensor, which every ReferenceTensor is.
+     */
+    static ReferenceTensorImpl of(ReferenceTensor tensor) {
+        return (ReferenceTensorImpl) tensor;
+    }
+
+    ReferenceDataImpl referenceData() {
+        if (data == null) {
+            data = new ReferenceDataImpl(new ReferenceTensorImpl(backend, storage, offset, dimensions, strides));
+        }
+        return data;
+    }
+
+    @Override
+    public float get(int... indices) {
+        if (indices.length == dimensions.length) {
+            int index = offset;
+            for (int d = 0; d < indices.length; d++) {
+                if (indices[d] < 0 || indices[d] >= dimensions[d]) {
+                    throw new IndexOutOfBoundsException("Index " + Arrays.toString(indices) + " is outside "
+                            + Arrays.toString(dimensions));
+                }
+                index += indices[d] * strides[d];
+            }
+            return storage.get(index);
+        }
+        if (indices.length == 1) {
+            int flatIndex = indices[0];
+            if (flatIndex < 0 || flatIndex >= numel()) {
+                throw new IndexOutOfBoundsException("Index " + flatIndex + " is outside " + numel() + " elements");
+            }
+            int index = offset;
+            for (int d = dimensions.length - 1; d >= 0; d--) {
+                index += flatIndex % dimensions[d] * strides[d];
+                flatIndex /= dimensions[d];
+            }
+            return storage.get(index);
+        }
+        throw new IllegalArgumentException("Expected " + dimensions.length + " indices or a single flat index");
+    }
+
+    /**
+     * A view of the elements at the given indices, keeping the dimensions whose index is -1.
+     */
+    @Override
+    public ReferenceTensor getTensor(int... indices) {
+        if (indices.length != dimensions.length) {
+            throw new IllegalArgumentException("Expected " + dimensions.length + " indices but found "
+                    + indices.length);
+        }
+        var ranges = new int[dimensions.length][];
+        var kept = new boolean[dimensions.length];
+        for (int d = 0; d < indices.length; d++) {
+            if (indices[d] == -1) {
+                ranges[d] = new int[] {0, dimensions[d]};
+                kept[d] = true;
+            } else if (indices[d] < 0 || indices[d] >= dimensions[d]) {
+                throw new IndexOutOfBoundsException("Index " + Arrays.toString(indices) + " is outside "
+                        + Arrays.toString(dimensions));
+            } else {
+                ranges[d] = new int[] {indices[d], indices[d] + 1};
+            }
+        }
+        return slice(ranges, kept);
+    }
+
+    /**
+     * A view of the elements in the [start, end) ranges of the first two dimensions.
+     */
+    @Override
+    public ReferenceTensor getTensor(int[] firstRange, int[] secondRange) {
+        if (dimensions.length < 2) {
+            throw new IllegalArgumentException("Cannot take 2 ranges of " + Arrays.toString(dimensions));
+        }
+        var ranges = new int[dimensions.length][];
+        var kept = new boolean[dimensions.length];
+        for (int d = 0; d < dimensions.length; d++) {
+            var range = d == 0 ? firstRange : d == 1 ? secondRange : new int[] {0, dimensions[d]};
+            if (range[0] < 0 || range[1] < range[0] || range[1] > dimensions[d]) {
+                throw new IndexOutOfBoundsException("Range [" + range[0] + ", " + range[1] + ") is outside dimension "
+                        + d + " of " + Arrays.toString(dimensions));
+            }
+            ranges[d] = new int[] {range[0], range[1]};
+            kept[d] = true;
+        }
+        return slice(ranges, kept);
+    }
+
+    @Override
+    public ReferenceTensor t() {
+        return transpose();
+    }
+
+    @Override
+    public float[] getDataAsFloatArray() {
+        var values = new float[numel()];
+        Kernels.copy(this, new ReferenceTensorImpl(backend, new Storage.Heap(values), 0, dimensions,
+                contiguousStrides(dimensions)));
+        return values;
+    }
+
+    /**
+     * @return A read-only view of the values in row-major order, copied only if this tensor is
+     *         not contiguous or its storage cannot be viewed.
+     */
+    FloatBuffer getDataAsFloatBuffer() {
+        if (isContiguous()) {
+            var view = storage.view(offset, numel());
+            if (view != null) {
+                return view;
+            }
+        }
+        return FloatBuffer.wrap(getDataAsFloatArray()).asReadOnlyBuffer();
+    }
+
+    @Override
+    public Supplier<ReferenceData> data() {
+        return this::referenceData;
+    }
+
+    @Override
+    public ReferenceTensor name_(String name) {
+        this.name = name;
+        return this;
+    }
+
+    @Override
+    public ReferenceTensor reshape(Size size) {
+        return reshapeTo(size.dimensions());
+    }
+
+    @Override
+    public ReferenceTensor view(Size size) {
+        var viewDimensions = size.dimensions();
+        checkNumel(viewDimensions);
+        if (!isContiguous()) {
+            throw new IllegalStateException("Cannot view a non-contiguous tensor, use reshape instead");
+        }
+        return reshapeTo(viewDimensions);
+    }
+
+    @Override
+    public ReferenceTensor resize_(Size size) {
+        var newDimensions = size.dimensions();
+        if (numel(newDimensions) != numel() || !isContiguous()) {
+            var resized = allocate(backend, ReferenceBackend.ELEMENTWISE, newDimensions);
+            var values = getDataAsFloatArray();
+            for (int i = 0; i < Math.min(values.length, resized.numel()); i++) {
+                resized.storage.set(i, values[i]);
+            }
+            storage = resized.storage;
+            offset = 0;
+        }
+        dimensions = newDimensions;
+        strides = contiguousStrides(newDimensions);
+        data = null;
+        return this;
+    }
+
+    @Override
+    public int numel() {
+        return numel(dimensions);
+    }
+
+    @Override
+    public Size size() {
+        return new Size(dimensions);
+    }
+
+    @Override
+    public ReferenceTensor add(ReferenceTensor other) {
+        return elementwise(Elementwise.ADD, of(other));
+    }
+
+    @Override
+    public ReferenceTensor add(float other) {
+        return elementwise(Elementwise.ADD, other);
+    }
+
+    @Override
+    public ReferenceTensor sub(ReferenceTensor other) {
+        return elementwise(Elementwise.SUB, of(other));
+    }
+
+    @Override
+    public ReferenceTensor sub(float other) {
+        return elementwise(Elementwise.SUB, other);
+    }
+
+    @Override
+    public ReferenceTensor mul(ReferenceTensor other) {
+        return elementwise(Elementwise.MUL, of(other));
+    }
+
+    @Override
+    public ReferenceTensor mul(float other) {
+        return elementwise(Elementwise.MUL, other);
+    }
+
+    @Override
+    public ReferenceTensor div(ReferenceTensor other) {
+        return elementwise(Elementwise.DIV, of(other));
+    }
+
+    @Override
+    public ReferenceTensor div(float other) {
+        return elementwise(Elementwise.DIV, other);
+    }
+
+    @Override
+    public ReferenceTensor relu() {
+        return rectify();
+    }
+
+    @Override
+    public ReferenceTensor matmul(ReferenceTensor other) {
+        return matrixProduct(of(other));
+    }
+
+    @Override
+    public ReferenceTensor sum() {
+        return total();
+    }
+
+    @Override
+    public void backward() {
+        Backward.run(this, null, false, false);
+    }
+
+    @Override
+    public void backward(ReferenceTensor gradient) {
+        Backward.run(this, of(gradient), false, false);
+    }
+
+    @Override
+    public void backward(BackwardConfig config) {
+        Backward.run(this, null, config.keep_graph(), config.keep_graph(), pool(config));
+    }
+
+    @Override
+    public void backward(ReferenceTensor gradient, BackwardConfig config) {
+        Backward.run(this, of(gradient), config.keep_graph(), config.keep_graph(), pool(config));
+    }
+
+    private static ForkJoinPool pool(BackwardConfig config) {
+        return config instanceof ParallelBackwardConfig ? ((ParallelBackwardConfig) config).getPool() : null;
+    }
+
+    @Override
+    public ReferenceTensor grad() {
+        return grad;
+    }
+
+    @Override
+    public ReferenceTensor grad(boolean accumulate) {
+        return grad();
+    }
+
+    /**
+     * Zeroes the gradient in place, keeping its storage for the next backward pass to accumulate
+     * into.
+     */
+    synchronized void zeroGrad() {
+        if (grad != null) {
+            Kernels.map(x -> 0, grad, grad);
+            grad.storage.incrementVersion();
+        }
+    }
+
+    @Override
+    public boolean isNativeGradient() {
+        return false;
+    }
+
+    @Override
+    public boolean requires_grad() {
+        return requiresGrad;
+    }
+
+    @Override
+    public ReferenceTensor requires_grad_(boolean requiresGrad) {
+        this.requiresGrad = requiresGrad;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        storage.close();
+    }
+
+    @Override
+    public synchronized ReferenceGradNode getGradNode() {
+        if (gradNode == null) {
+            gradNode = new ReferenceGradNode(this);
+        }
+        return gradNode;
+    }
+
+    /**
+     * The reference backend keeps its values in its own storage, which the other backends cannot
+     * read, so it has no conversions to them.
+     */
+    @Override
+    public DJLTensor toDJLTensor() {
+        throw new UnsupportedOperationException("Reference tensors cannot be converted to DJL tensors");
+    }
+
+    @Override
+    public ML4JTensor toML4JTensor(DirectedComponentsContext context) {
+        throw new UnsupportedOperationException("Reference tensors cannot be converted to ML4J tensors");
+    }
+
+    @Override
+    public DL4JTensor toDL4JTensor() {
+        throw new UnsupportedOperationException("Reference tensors cannot be converted to DL4J tensors");
+    }
+
+    ReferenceTensorImpl elementwise(Elementwise elementwise, ReferenceTensorImpl other) {
+        var output = Fusion.binary(elementwise, this, other);
+        if (output == null) {
+            output = allocate(backend, ReferenceBackend.ELEMENTWISE, Kernels.broadcastDimensions(dimensions,
+                    other.dimensions));
+            Kernels.apply(elementwise, this, other, output);
+        }
+        if (isRecorded(this, other)) {
+            output.record(new Operation.Binary(elementwise, this, other));
+        }
+        return output;
+    }
+
+    ReferenceTensorImpl elementwise(Elementwise elementwise, float value) {
+        Kernels.FloatOperator function = x -> elementwise.apply(x, value);
+        var output = Fusion.map(function, this);
+        if (output == null) {
+            output = allocate(backend, ReferenceBackend.ELEMENTWISE, dimensions);
+            Kernels.map(function, this, output);
+        }
+        if (isRecorded(this)) {
+            output.record(new Operation.Scalar(elementwise, this, value));
+        }
+        return output;
+    }
+
+    ReferenceTensorImpl rectify() {
+        Kernels.FloatOperator function = x -> x > 0 ? x : 0;
+        var output = Fusion.map(function, this);
+        if (output == null) {
+            output = allocate(backend, ReferenceBackend.ELEMENTWISE, dimensions);
+            Kernels.map(function, this, output);
+        }
+        if (isRecorded(this)) {
+            output.record(new Operation.Relu(this));
+        }
+        return output;
+    }
+
+    /**
+     * Applies the operation with the other tensor, broadcast to the dimensions of this tensor,
+     * to the values of this tensor in place.
+     */
+    ReferenceTensorImpl inPlace(Elementwise elementwise, ReferenceTensorImpl other) {
+        if (!Arrays.equals(Kernels.broadcastDimensions(dimensions, other.dimensions), dimensions)) {
+            throw new IllegalArgumentException("Cannot broadcast " + Arrays.toString(other.dimensions) + " to "
+                    + Arrays.toString(dimensions) + " in place");
+        }
+        beginInPlace();
+        boolean recorded = isRecorded(this, other);
+        ReferenceTensorImpl previous = null;
+        if (recorded) {
+            // The gradient of other reads the values of this tensor before they are overwritten
+            boolean valuesNeeded = other.requiresGrad && (elementwise == Elementwise.MUL
+                    || elementwise == Elementwise.DIV);
+            previous = valuesNeeded ? history(contiguousCopy(ReferenceBackend.ELEMENTWISE)) : history(this);
+        }
+        if (other == this && previous != null) {
+            other = previous;
+        }
+        Kernels.apply(elementwise, this, other, this);
+        storage.incrementVersion();
+        if (recorded) {
+            record(new Operation.Binary(elementwise, previous, other));
+        }
+        return this;
+    }
+
+    ReferenceTensorImpl rectifyInPlace() {
+        beginInPlace();
+        boolean recorded = isRecorded(this);
+        Kernels.map(x -> x > 0 ? x : 0, this, this);
+        storage.incrementVersion();
+        if (recorded) {
+            // The rectified values are positive exactly where the original values were, so the
+            // gradient can read them in place of the original values
+            record(new Operation.Relu(history(this)));
+        }
+        return this;
+    }
+
+    /**
+     * Checks that this tensor can be written in place, and evaluates it if it is fused.
+     */
+    private void beginInPlace() {
+        if (requiresGrad && operation == null && GradMode.isEnabled()) {
+            throw new IllegalStateException("A leaf tensor that requires grad cannot be used in an in-place "
+                    + "operation");
+        }
+        if (storage instanceof Storage.Fused) {
+            var evaluated = contiguousCopy(ReferenceBackend.ELEMENTWISE);
+            storage = evaluated.storage;
+            offset = 0;
+            strides = evaluated.strides;
+            data = null;
+        }
+    }
+
+    /**
+     * @return A tensor with the given values, standing for this tensor in the graph as it was
+     *         before an in-place operation.
+     */
+    private ReferenceTensorImpl history(ReferenceTensorImpl values) {
+        var previous = new ReferenceTensorImpl(backend, values.storage, values.offset, dimensions, values.strides);
+        previous.operation = operation;
+        previous.requiresGrad = requiresGrad;
+        return previous;
+    }
+
+    /**
+     * @return Ones where this tensor is positive and zeros elsewhere, which is never recorded.
+     */
+    ReferenceTensorImpl reluMask() {
+        Kernels.FloatOperator function = x -> x > 0 ? 1 : 0;
+        var output = Fusion.map(function, this);
+        if (output == null) {
+            output = allocate(backend, ReferenceBackend.ELEMENTWISE, dimensions);
+            Kernels.map(function, this, output);
+        }
+        return output;
+    }
+
+    ReferenceTensorImpl matrixProduct(ReferenceTensorImpl other) {
+        if (dimensions.length < 2 || other.dimensions.length != 2 || dimensions[dimensions.length - 1]
+                != other.dimensions[0]) {
+            throw new IllegalArgumentException("Cannot multiply " + Arrays.toString(dimensions) + " by "
+                    + Arrays.toString(other.dimensions));
+        }
+        int m = dimensions[dimensions.length - 2];
+        int k = other.dimensions[0];
+        int n = other.dimensions[1];
+        var outputDimensions = dimensions.clone();
+        outputDimensions[outputDimensions.length - 1] = n;
+        var output = allocate(backend, ReferenceBackend.MATMUL, outputDimensions);
+        Kernels.matmul(this, other, output, numel() / (m * k), m, k, n);
+        if (isRecorded(this, other)) {
+            output.record(new Operation.MatMul(this, other));
+        }
+        return output;
+    }
+
+    ReferenceTensorImpl total() {
+        var output = allocate(backend, ReferenceBackend.REDUCTION, new int[0]);
+        output.storage.set(0, Kernels.sum(this));
+        if (isRecorded(this)) {
+            output.record(new Operation.Sum(this));
+        }
+        return output;
+    }
+
+    /**
+     * Sums over the dimensions along which a tensor of the given dimensions would be broadcast
+     * to the dimensions of this tensor.
+     */
+    ReferenceTensorImpl sumTo(int[] targetDimensions) {
+        if (Arrays.equals(dimensions, targetDimensions)) {
+            return this;
+        }
+        var output = allocate(backend, ReferenceBackend.REDUCTION, targetDimensions.clone());
+        Kernels.sumTo(this, output);
+        if (isRecorded(this)) {
+            output.record(new Operation.SumTo(this));
+        }
+        return output;
+    }
+
+    ReferenceTensorImpl expand(int[] targetDimensions) {
+        var output = allocate(backend, ReferenceBackend.ELEMENTWISE, targetDimensions.clone());
+        Kernels.copy(this, output);
+        if (isRecorded(this)) {
+            output.record(new Operation.Expand(this));
+        }
+        return output;
+    }
+
+    /**
+     * A view swapping the last two dimensions.
+     */
+    ReferenceTensorImpl transpose() {
+        int rank = dimensions.length;
+        if (rank < 2) {
+            return this;
+        }
+        var transposedDimensions = dimensions.clone();
+        var transposedStrides = strides.clone();
+        transposedDimensions[rank - 2] = dimensions[rank - 1];
+        transposedDimensions[rank - 1] = dimensions[rank - 2];
+        transposedStrides[rank - 2] = strides[rank - 1];
+        transposedStrides[rank - 1] = strides[rank - 2];
+        var output = new ReferenceTensorImpl(backend, storage, offset, transposedDimensions, transposedStrides);
+        if (isRecorded(this)) {
+            output.record(new Operation.Transpose(this));
+        }
+        return output;
+    }
+
+    /**
+     * A view with the given dimensions if this tensor is contiguous, otherwise a copy.
+     */
+    ReferenceTensorImpl reshapeTo(int[] newDimensions) {
+        checkNumel(newDimensions);
+        var source = isContiguous() ? this : contiguousCopy(ReferenceBackend.ELEMENTWISE);
+        var output = new ReferenceTensorImpl(backend, source.storage, source.offset, newDimensions.clone(),
+                contiguousStrides(newDimensions));
+        if (isRecorded(this)) {
+            output.record(new Operation.Reshape(this));
+        }
+        return output;
+    }
+
+    /**
+     * A view of the elements in the [start, end) range of each dimension, dropping the dimensions
+     * which are not kept, whose ranges have one element.
+     */
+    ReferenceTensorImpl slice(int[][] ranges, boolean[] kept) {
+        int viewOffset = offset;
+        int rank = 0;
+        for (int d = 0; d < ranges.length; d++) {
+            viewOffset += ranges[d][0] * strides[d];
+            rank += kept[d] ? 1 : 0;
+        }
+        var viewDimensions = new int[rank];
+        var viewStrides = new int[rank];
+        int v = 0;
+        for (int d = 0; d < ranges.length; d++) {
+            if (kept[d]) {
+                viewDimensions[v] = ranges[d][1] - ranges[d][0];
+                viewStrides[v++] = strides[d];
+            }
+        }
+        var output = new ReferenceTensorImpl(backend, storage, viewOffset, viewDimensions, viewStrides);
+        if (isRecorded(this)) {
+            output.record(new Operation.Slice(this, ranges));
+        }
+        return output;
+    }
+
+    /**
+     * Applies the segment to this tensor, keeping only its output. The graph of the segment is
+     * recorded to find the tensors it uses from outside it, then discarded, and is recomputed
+     * during backward.
+     */
+    ReferenceTensorImpl checkpoint(Function<ReferenceTensor, ReferenceTensor> segment) {
+        if (!GradMode.isEnabled()) {
+            return of(segment.apply(this));
+        }
+        var input = new ReferenceTensorImpl(backend, storage, offset, dimensions, strides);
+        input.requiresGrad = requiresGrad;
+        Set<ReferenceTensorImpl> recorded = Collections.newSetFromMap(new IdentityHashMap<>());
+        var previous = Operation.Checkpoint.RECORDED.get();
+        Operation.Checkpoint.RECORDED.set(recorded);
+        ReferenceTensorImpl output;
+        try {
+            output = of(segment.apply(input));
+        } finally {
+            Operation.Checkpoint.RECORDED.set(previous);
+        }
+        if (!output.requiresGrad) {
+            return output;
+        }
+        var inputs = new ArrayList<ReferenceTensorImpl>();
+        inputs.add(this);
+        var pending = new ArrayDeque<ReferenceTensorImpl>();
+        Set<ReferenceTensorImpl> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        pending.push(output);
+        while (!pending.isEmpty()) {
+            var tensor = pending.pop();
+            if (tensor == input || !visited.add(tensor)) {
+                continue;
+            }
+            if (recorded.contains(tensor)) {
+                for (int i = 0; i < tensor.operation.getInputCount(); i++) {
+                    pending.push(tensor.operation.getInput(i));
+                }
+            } else if (tensor.requiresGrad) {
+                inputs.add(tensor);
+            }
+        }
+        var result = new ReferenceTensorImpl(backend, output.storage, output.offset, output.dimensions,
+                output.strides);
+        result.record(new Operation.Checkpoint(segment, inputs.toArray(new ReferenceTensorImpl[0])));
+        return result;
+    }
+
+    /**
+     * Adds the slices into zeros of the given dimensions, in the ranges they were taken from.
+     *
+     * @param ranges For each slice, and each of the dimensions, the start (inclusive) and end
+     *        (exclusive) of the slice.
+     */
+    static ReferenceTensorImpl scatterAdd(ReferenceBackend backend, int[] parentDimensions,
+            List<ReferenceTensorImpl> slices, List<int[][]> ranges) {
+        var output = full(backend, ReferenceBackend.GRADIENT, 0, parentDimensions.clone());
+        Kernels.scatterAdd(output, slices, ranges);
+        boolean recorded = false;
+        for (var slice : slices) {
+            recorded |= isRecorded(slice);
+        }
+        if (recorded) {
+            output.record(new Operation.ScatterAdd(slices.toArray(new ReferenceTensorImpl[0]),
+                    ranges.toArray(new int[0][][])));
+        }
+        return output;
+    }
+
+    /**
+     * @return The sum of the terms, which all have the same dimensions, rounded once rather than
+     *         after each addition.
+     */
+    static ReferenceTensorImpl sum(List<ReferenceTensorImpl> terms) {
+        var first = terms.get(0);
+        var output = allocate(first.backend, ReferenceBackend.GRADIENT, first.dimensions.clone());
+        Kernels.sum(terms, output);
+        boolean recorded = false;
+        for (var term : terms) {
+            recorded |= isRecorded(term);
+        }
+        if (recorded) {
+            output.record(new Operation.AddAll(terms.toArray(new ReferenceTensorImpl[0])));
+        }
+        return output;
+    }
+
+    /**
+     * @return A contiguous copy which is not part of any graph.
+     */
+    ReferenceTensorImpl contiguousCopy(String operation) {
+        var copy = allocate(backend, operation, dimensions.clone());
+        Kernels.copy(this, copy);
+        return copy;
+    }
+
+    private void record(Operation recorded) {
+        this.operation = recorded;
+        this.requiresGrad = true;
+        var checkpointed = Operation.Checkpoint.RECORDED.get();
+        if (checkpointed != null) {
+            checkpointed.add(this);
+        }
+    }
+
+    private static boolean isRecorded(ReferenceTensorImpl input) {
+        return input.requiresGrad && GradMode.isEnabled();
+    }
+
+    private static boolean isRecorded(ReferenceTensorImpl first, ReferenceTensorImpl second) {
+        return (first.requiresGrad || second.requiresGrad) && GradMode.isEnabled();
+    }
+
+    private void checkNumel(int[] newDimensions) {
+        if (numel(newDimensions) != numel()) {
+            throw new IllegalArgumentException("Shape " + Arrays.toString(newDimensions) + " is invalid for "
+                    + numel() + " elements");
+        }
+    }
+
+    boolean isContiguous() {
+        int expectedStride = 1;
+        for (int d = dimensions.length - 1; d >= 0; d--) {
+            if (dimensions[d] != 1 && strides[d] != expectedStride) {
+                return false;
+            }
+            expectedStride *= dimensions[d];
+        }
+        return true;
+    }
+
+    static int numel(int[] dimensions) {
+        int numel = 1;
+        for (int dimension : dimensions) {
+            numel *= dimension;
+        }
+        return numel;
+    }
+
+    static int[] contiguousStrides(int[] dimensions) {
+        var strides = new int[dimensions.length];
+        int stride = 1;
+        for (int d = dimensions.length - 1; d >= 0; d--) {
+            strides[d] = stride;
+            stride *= dimensions[d];
+        }
+        return strides;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceTensor [" + (name == null ? "" : name + ", ") + backend + ", size="
+                + Arrays.toString(dimensions) + ", requires_grad=" + requiresGrad + "]";
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.jvmpy.symbolictensors.Size;
+import org.ml4j.autograd.BackwardConfig;
+import org.ml4j.tensor.CapturedGraph;
+import org.ml4j.tensor.FloatArena;
+import org.ml4j.tensor.Precision;
+import org.ml4j.tensor.Tensor;
+import org.ml4j.tensor.TensorTestBase;
+
+/**
+ * Runs the Tensor conformance tests against a reference backend.
+ */
+public abstract class ReferenceTensorTestBase extends TensorTestBase<ReferenceTensor, ReferenceData> {
+
+    protected abstract ReferenceBackend getBackend();
+
+    @Override
+    protected ReferenceTensor createGradValue(float value, boolean requires_grad) {
+        return getBackend().full(value, requires_grad);
+    }
+
+    @Override
+    protected ReferenceTensor createGradValue(ReferenceData value, boolean requires_grad) {
+        return getBackend().tensor(value, requires_grad);
+    }
+
+    @Override
+    protected ReferenceTensor createGradValue(float value, boolean requires_grad, Size size) {
+        return getBackend().full(value, requires_grad, size.dimensions());
+    }
+
+    @Override
+    protected ReferenceTensor createGradValue(float[] data, int... dims) {
+        return getBackend().tensor(data, dims);
+    }
+
+    @Override
+    protected void assertEquals(ReferenceData value1, ReferenceData value2) {
+        var expected = ReferenceDataImpl.of(value1).getDataAsFloatArray();
+        var actual = ReferenceDataImpl.of(value2).getDataAsFloatArray();
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual[i], tolerance(expected[i], 0.01f));
+        }
+    }
+
+    @Override
+    protected ReferenceData add(ReferenceData value1, ReferenceData value2) {
+        return value1.add(value2);
+    }
+
+    @Override
+    protected ReferenceData mul(ReferenceData value1, float value2) {
+        return value1.mul(value2);
+    }
+
+    @Override
+    protected ReferenceData createData(float value) {
+        return getBackend().data(value);
+    }
+
+    @Override
+    protected ReferenceData createData(float value, Size size) {
+        return getBackend().data(value, size.dimensions());
+    }
+
+    /**
+     * The reference backend computes every gradient with its own operations.
+     */
+    @Override
+    protected boolean isNativeGradientSupported() {
+        return false;
+    }
+
+    @Override
+    protected boolean isNativeGradientExpected() {
+        return false;
+    }
+
+    @Override
+    protected void assertSize(ReferenceTensor tensor, Size s) {
+        Assert.assertArrayEquals(s.dimensions(), tensor.size().dimensions());
+    }
+
+    @Override
+    protected boolean sharesStorage(Tensor<?, ?> first, Tensor<?, ?> second) {
+        return first instanceof ReferenceTensorImpl && second instanceof ReferenceTensorImpl
+                && ((ReferenceTensorImpl) first).storage == ((ReferenceTensorImpl) second).storage;
+    }
+
+    @Override
+    protected boolean isStridedViewSupported() {
+        return true;
+    }
+
+    /**
+     * Fusion skips the rounding of each intermediate value to a lower precision, so it only
+     * matches the unfused chain in FLOAT32.
+     */
+    @Override
+    protected boolean isElementwiseFusionSupported() {
+        return getPrecision() == Precision.FLOAT32;
+    }
+
+    @Override
+    protected AutoCloseable elementwiseFusionScope() {
+        return Fusion.set(true);
+    }
+
+    @Override
+    protected boolean isGradientBufferReuseSupported() {
+        return true;
+    }
+
+    @Override
+    protected void zero_grad_(ReferenceTensor tensor) {
+        ReferenceTensorImpl.of(tensor).zeroGrad();
+    }
+
+    @Override
+    protected boolean isGraphCaptureSupported() {
+        return true;
+    }
+
+    @Override
+    protected CapturedGraph<ReferenceTensor> capture(Function<List<ReferenceTensor>, ReferenceTensor> forward,
+            List<ReferenceTensor> leaves) {
+        return ReferenceCapturedGraph.capture(forward, leaves);
+    }
+
+    @Override
+    protected List<ReferenceTensor> hvp(Function<List<ReferenceTensor>, ReferenceTensor> f,
+            List<ReferenceTensor> inputs, List<ReferenceTensor> v) {
+        var products = Backward.hessianVectorProducts(ReferenceTensorImpl.of(f.apply(inputs)),
+                inputs.toArray(new ReferenceTensorImpl[0]), v.toArray(new ReferenceTensorImpl[0]));
+        return List.of(products);
+    }
+
+    @Override
+    protected boolean isHessianVectorProductOptimised() {
+        return true;
+    }
+
+    @Override
+    protected boolean isParallelBackwardSupported() {
+        return true;
+    }
+
+    @Override
+    protected BackwardConfig parallelBackwardConfig(ForkJoinPool pool) {
+        return new ParallelBackwardConfig(pool);
+    }
+
+    @Override
+    protected boolean isArenaAllocationSupported() {
+        return true;
+    }
+
+    @Override
+    protected AutoCloseable arenaScope(FloatArena arena) {
+        var scope = ArenaAllocation.set(arena);
+        return () -> {
+            scope.close();
+            arena.reset();
+        };
+    }
+
+    @Override
+    protected Precision getPrecision() {
+        return getBackend().getPrecision();
+    }
+
+    @Override
+    protected FloatBuffer getDataAsFloatBuffer(Tensor<?, ?> tensor) {
+        if (tensor instanceof ReferenceTensorImpl) {
+            return ((ReferenceTensorImpl) tensor).getDataAsFloatBuffer();
+        }
+        return super.getDataAsFloatBuffer(tensor);
+    }
+
+    /**
+     * 16-bit storage is copied to floats rather than viewed.
+     */
+    @Override
+    protected boolean isDataBufferViewExpected() {
+        return getPrecision() == Precision.FLOAT32;
+    }
+}
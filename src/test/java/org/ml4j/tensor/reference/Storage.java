@@ -0,0 +1,436 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ml4j.tensor.reference;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ml4j.tensor.FloatArena;
+import org.ml4j.tensor.HalfPrecisionStorage;
+import org.ml4j.tensor.OffHeapFloatStorage;
+import org.ml4j.tensor.Precision;
+
+/**
+ * The flat float storage of one or more reference tensors, which views share.
+ */
+abstract class Storage {
+
+    private int version;
+    private volatile List<Reference<Fused>> readers;
+
+    abstract int length();
+
+    /**
+     * @return The number of in-place operations which have written to this storage.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    void incrementVersion() {
+        version++;
+    }
+
+    abstract float get(int index);
+
+    abstract void set(int index, float value);
+
+    /**
+     * Records fused storage which computes its values from this storage when read, so that it is
+     * evaluated before this storage is next written.
+     */
+    synchronized void addReader(Fused reader) {
+        if (readers == null) {
+            readers = new ArrayList<>();
+        } else if (Integer.bitCount(readers.size()) == 1) {
+            // Drop collected readers whenever the list doubles
+            readers.removeIf(reference -> reference.get() == null);
+        }
+        readers.add(new WeakReference<>(reader));
+    }
+
+    /**
+     * @return Whether fused storage has read this storage since it was last written.
+     */
+    boolean hasReaders() {
+        return readers != null;
+    }
+
+    /**
+     * Evaluates the fused storage still reading this storage, so that writing to this storage
+     * does not change values already computed from it. Kernels call this before writing to
+     * storage which is not newly allocated.
+     */
+    void beforeWrite() {
+        if (readers == null) {
+            return;
+        }
+        List<Reference<Fused>> current;
+        synchronized (this) {
+            current = readers;
+            readers = null;
+        }
+        if (current != null) {
+            for (var reference : current) {
+                var reader = reference.get();
+                if (reader != null) {
+                    reader.materialize();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the storage may still be used, once before a kernel walks it rather than on
+     * every access, and keeps it usable until release() is called on the storage returned.
+     *
+     * @return The storage for the kernel to access.
+     */
+    Storage acquire() {
+        return this;
+    }
+
+    /**
+     * Ends the run of accesses begun by acquire(), called on the storage it returned.
+     */
+    void release() {
+    }
+
+    /**
+     * @return The array holding the values from index 0, which may be longer than the storage,
+     *         or null if the storage is not a heap array.
+     */
+    float[] array() {
+        return null;
+    }
+
+    /**
+     * @return A read-only view of part of the storage, or null if the storage cannot be viewed.
+     */
+    FloatBuffer view(int offset, int length) {
+        var array = array();
+        return array == null ? null : FloatBuffer.wrap(array, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Releases the storage's own reference to its memory. Storage which frees memory explicitly
+     * does so once no view holds it either, and other storage is left to the garbage collector.
+     * Closing storage more than once has no further effect.
+     */
+    void close() {
+    }
+
+    static Storage heap(int length) {
+        return new Heap(new float[length]);
+    }
+
+    static Storage offHeap(int length) {
+        return new OffHeap(length);
+    }
+
+    static Storage half(Precision precision, int length) {
+        return new Half(new HalfPrecisionStorage(precision, length));
+    }
+
+    static Storage arena(FloatArena arena, int length) {
+        return new Arena(arena.allocateZeroed(length));
+    }
+
+    /**
+     * Storage in a float array.
+     */
+    static final class Heap extends Storage {
+
+        private final float[] values;
+
+        Heap(float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        float get(int index) {
+            return values[index];
+        }
+
+        @Override
+        void set(int index, float value) {
+            values[index] = value;
+        }
+
+        @Override
+        float[] array() {
+            return values;
+        }
+    }
+
+    /**
+     * Storage in 16-bit values, rounding each value written. Kernels compute in float on copies,
+     * so each result is rounded once.
+     */
+    static final class Half extends Storage {
+
+        private final HalfPrecisionStorage storage;
+
+        Half(HalfPrecisionStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        int length() {
+            return storage.length();
+        }
+
+        @Override
+        float get(int index) {
+            return storage.get(index);
+        }
+
+        @Override
+        void set(int index, float value) {
+            storage.set(index, value);
+        }
+    }
+
+    /**
+     * Storage in a buffer from a FloatArena, whose array is acquired once when the storage is
+     * created and checked by acquire() and array(), which fail once the arena has been reset.
+     */
+    static final class Arena extends Storage {
+
+        private final FloatArena.Buffer buffer;
+        private final float[] values;
+
+        Arena(FloatArena.Buffer buffer) {
+            this.buffer = buffer;
+            this.values = buffer.array();
+        }
+
+        @Override
+        int length() {
+            return buffer.length();
+        }
+
+        @Override
+        float get(int index) {
+            return values[index];
+        }
+
+        @Override
+        void set(int index, float value) {
+            values[index] = value;
+        }
+
+        @Override
+        Storage acquire() {
+            buffer.array();
+            return this;
+        }
+
+        @Override
+        float[] array() {
+            return buffer.array();
+        }
+    }
+
+    /**
+     * The storage of a scalar, holding its value in a field rather than an array.
+     */
+    static final class Scalar extends Storage {
+
+        private float value;
+
+        @Override
+        int length() {
+            return 1;
+        }
+
+        @Override
+        float get(int index) {
+            checkIndex(index);
+            return value;
+        }
+
+        @Override
+        void set(int index, float value) {
+            checkIndex(index);
+            this.value = value;
+        }
+
+        private static void checkIndex(int index) {
+            if (index != 0) {
+                throw new IndexOutOfBoundsException("Index " + index + " of a scalar");
+            }
+        }
+    }
+
+    /**
+     * Read-only storage whose values are computed from other storage, so that a chain of
+     * elementwise operations is evaluated in a single pass over its inputs, without arrays for
+     * the intermediate values.
+     *
+     * The values are computed on each read until a kernel acquires the storage, a view is
+     * taken, another fused operation reads it, or one of the storages it reads is about to be
+     * written. The storage is then materialized: its values are computed once into storage of
+     * the backend, which serves every later read, and the storages it read are released.
+     */
+    static final class Fused extends Storage {
+
+        private final ReferenceBackend backend;
+        private final int length;
+        private final int operationCount;
+        private volatile Kernels.IndexOperator values;
+        private volatile Storage materialized;
+
+        /**
+         * @param backend The backend allocating the storage the values are materialized into.
+         * @param operationCount The number of operations evaluated to compute each value.
+         */
+        Fused(ReferenceBackend backend, int length, int operationCount, Kernels.IndexOperator values) {
+            this.backend = backend;
+            this.length = length;
+            this.operationCount = operationCount;
+            this.values = values;
+        }
+
+        /**
+         * @return The number of operations evaluated to read each value, which is 0 once the
+         *         values are materialized.
+         */
+        int getOperationCount() {
+            return materialized == null ? operationCount : 0;
+        }
+
+        synchronized void materialize() {
+            if (materialized == null) {
+                var storage = backend.allocate(ReferenceBackend.ELEMENTWISE, length);
+                var function = values;
+                for (int i = 0; i < length; i++) {
+                    storage.set(i, function.apply(i));
+                }
+                materialized = storage;
+                values = null;
+            }
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        float get(int index) {
+            var function = values;
+            return function != null ? function.apply(index) : materialized.get(index);
+        }
+
+        @Override
+        void set(int index, float value) {
+            throw new IllegalStateException("Fused values are computed on read and cannot be written");
+        }
+
+        @Override
+        Storage acquire() {
+            materialize();
+            return materialized.acquire();
+        }
+
+        @Override
+        FloatBuffer view(int offset, int length) {
+            materialize();
+            return materialized.view(offset, length);
+        }
+
+        @Override
+        void close() {
+            var storage = materialized;
+            if (storage != null) {
+                storage.close();
+            }
+        }
+    }
+
+    /**
+     * Storage in an OffHeapFloatStorage, holding its owner reference until close() or, for
+     * tensors which are never closed, until this storage is garbage collected. Views taken with
+     * view() hold references of their own, so the memory is freed by the last of close() and the
+     * collection of the views.
+     */
+    static final class OffHeap extends Storage {
+
+        private static final Cleaner OWNERS = Cleaner.create();
+
+        private final OffHeapFloatStorage storage;
+        private final Cleaner.Cleanable owner;
+
+        OffHeap(int length) {
+            var storage = new OffHeapFloatStorage(length);
+            this.storage = storage;
+            this.owner = OWNERS.register(this, storage::release);
+        }
+
+        OffHeapFloatStorage getStorage() {
+            return storage;
+        }
+
+        @Override
+        int length() {
+            return (int) storage.length();
+        }
+
+        @Override
+        float get(int index) {
+            return storage.get(index);
+        }
+
+        @Override
+        void set(int index, float value) {
+            storage.set(index, value);
+        }
+
+        /**
+         * Retains the memory for the kernel's run, which may be on a thread racing the last
+         * release of the storage.
+         */
+        @Override
+        Storage acquire() {
+            storage.retain();
+            return this;
+        }
+
+        @Override
+        void release() {
+            storage.release();
+        }
+
+        @Override
+        FloatBuffer view(int offset, int length) {
+            return storage.asFloatBuffer(offset, length, false);
+        }
+
+        @Override
+        void close() {
+            owner.clean();
+        }
+    }
+}